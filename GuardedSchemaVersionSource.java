@@ -0,0 +1,351 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link SchemaVersionSource} guarding the calls of another source with a deadline per call and a
+ * circuit breaker:
+ * <ul>
+ * <li>a call not answered within {@code callTimeoutMs} is interrupted and fails, the calls run on
+ * a pool of {@code callThreads} threads, a call not fitting fails at once. A timed out call that
+ * ignores the interrupt keeps its thread, the pool grows by one thread for it until it returns, up to
+ * {@code callThreads} such threads</li>
+ * <li>after {@code failureThreshold} consecutive failed calls the breaker opens and calls fail
+ * without reaching the source for {@code openMs}, then a single trial call decides whether it
+ * closes or opens again</li>
+ * </ul>
+ * Only failures of the schema service itself count for the breaker: timeouts, and exceptions
+ * caused by an IOException or by one of the configured transport exceptions. Other exceptions are
+ * answers of the service, e.g. an unknown schema, and a call rejected because all threads are in use
+ * says nothing about the service.
+ * Failed calls throw {@link UnavailableException} with the reason, callers fall back to the last
+ * known versions.
+ */
+class GuardedSchemaVersionSource implements SchemaVersionSource {
+
+    private static final Logger LOG = LoggerFactory.getLogger(GuardedSchemaVersionSource.class);
+
+    static final String REASON_TIMEOUT = "timeout";
+    static final String REASON_CIRCUIT_OPEN = "circuitOpen";
+    static final String REASON_BUSY = "busy";
+
+    enum State {
+	CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final SchemaVersionSource source;
+    private final long callTimeoutMs;
+    private final int failureThreshold;
+    private final long openMs;
+    // class names of the exceptions counting as failures besides IOException
+    private final Set<String> failureExceptions;
+    private final int callThreads;
+    private final ThreadPoolExecutor callExecutor;
+    // calls that timed out and still hold their thread
+    private final AtomicInteger abandonedCalls = new AtomicInteger();
+
+    // guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialCall;
+
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder shortCircuited = new LongAdder();
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder busy = new LongAdder();
+
+    /**
+     * @param failureExceptions
+     *            - class names of exceptions counting as failures of the schema service besides
+     *            IOException, e.g. the connection loss of its Zookeeper client
+     */
+    GuardedSchemaVersionSource(SchemaVersionSource source, long callTimeoutMs, int callThreads, int failureThreshold,
+	    long openMs, Set<String> failureExceptions) {
+	this.source = source;
+	this.callTimeoutMs = callTimeoutMs;
+	this.failureThreshold = Math.max(failureThreshold, 1);
+	this.openMs = openMs;
+	this.failureExceptions = failureExceptions;
+	this.callThreads = Math.max(callThreads, 1);
+	callExecutor = new ThreadPoolExecutor(0, this.callThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+		TemplateEnquiryExecutors.daemonThreads("ntf-schema-call"));
+    }
+
+    /**
+     * @param classNames
+     *            - comma separated class names
+     * @return the class names
+     */
+    static Set<String> parseClassNames(String classNames) {
+	Set<String> set = new HashSet<>();
+	for (String className : classNames.split(",")) {
+	    if (!className.trim().isEmpty()) {
+		set.add(className.trim());
+	    }
+	}
+	return set;
+    }
+
+    @Override
+    public boolean isAvailable() {
+	return source.isAvailable();
+    }
+
+    @Override
+    public String getActiveVersion(final String namespace, final String schemaName) throws Exception {
+	return call(schemaName, new Callable<String>() {
+	    @Override
+	    public String call() throws Exception {
+		return source.getActiveVersion(namespace, schemaName);
+	    }
+	});
+    }
+
+    @Override
+    public List<String> getVersions(final String namespace, final String schemaName) throws Exception {
+	return call(schemaName, new Callable<List<String>>() {
+	    @Override
+	    public List<String> call() throws Exception {
+		return source.getVersions(namespace, schemaName);
+	    }
+	});
+    }
+
+    private <T> T call(String schemaName, Callable<T> call) throws Exception {
+	if (!tryAcquire()) {
+	    shortCircuited.increment();
+	    throw new UnavailableException(REASON_CIRCUIT_OPEN, "schema service circuit is open");
+	}
+	GuardedCall<T> guarded = new GuardedCall<>(call);
+	Future<T> future;
+	try {
+	    future = callExecutor.submit(guarded);
+	} catch (RejectedExecutionException e) {
+	    // the service may well answer, the calls in progress are not failed yet
+	    busy.increment();
+	    releaseTrial();
+	    throw new UnavailableException(REASON_BUSY, "all schema service calls are in progress");
+	}
+	try {
+	    T result = future.get(callTimeoutMs, TimeUnit.MILLISECONDS);
+	    onSuccess();
+	    return result;
+	} catch (TimeoutException e) {
+	    guarded.abandon();
+	    future.cancel(true);
+	    timeouts.increment();
+	    onFailure();
+	    throw new UnavailableException(REASON_TIMEOUT,
+		    "schema service did not answer for schema " + schemaName + " within " + callTimeoutMs + " ms");
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (isServiceFailure(cause)) {
+		onFailure();
+	    } else {
+		// an answer of the schema service
+		onSuccess();
+	    }
+	    if (cause instanceof Exception) {
+		throw (Exception) cause;
+	    }
+	    throw e;
+	} catch (InterruptedException e) {
+	    guarded.abandon();
+	    future.cancel(true);
+	    // the caller gave up, not a failure of the schema service
+	    releaseTrial();
+	    throw e;
+	}
+    }
+
+    /**
+     * @return true if the exception or one of its causes is an IOException or a configured transport
+     *         exception
+     */
+    private boolean isServiceFailure(Throwable failure) {
+	for (Throwable t = failure; t != null; t = t.getCause() == t ? null : t.getCause()) {
+	    if (t instanceof IOException) {
+		return true;
+	    }
+	    for (Class<?> c = t.getClass(); c != null; c = c.getSuperclass()) {
+		if (failureExceptions.contains(c.getName())) {
+		    return true;
+		}
+	    }
+	}
+	return false;
+    }
+
+    private synchronized void addAbandonedCall() {
+	int abandoned = abandonedCalls.incrementAndGet();
+	callExecutor.setMaximumPoolSize(callThreads + Math.min(abandoned, callThreads));
+	LOG.warn("Schema service call ignored the interrupt after its timeout, {} calls still hold a thread",
+		abandoned);
+    }
+
+    private synchronized void removeAbandonedCall() {
+	int abandoned = abandonedCalls.decrementAndGet();
+	callExecutor.setMaximumPoolSize(callThreads + Math.min(abandoned, callThreads));
+    }
+
+    /**
+     * Call that knows whether it still holds a thread after it was abandoned
+     */
+    private final class GuardedCall<T> implements Callable<T> {
+	private static final int QUEUED = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int ABANDONED = 3;
+
+	private final Callable<T> call;
+	private final AtomicInteger state = new AtomicInteger(QUEUED);
+
+	GuardedCall(Callable<T> call) {
+	    this.call = call;
+	}
+
+	@Override
+	public T call() throws Exception {
+	    if (!state.compareAndSet(QUEUED, RUNNING)) {
+		// abandoned before it started
+		return null;
+	    }
+	    try {
+		return call.call();
+	    } finally {
+		if (!state.compareAndSet(RUNNING, DONE)) {
+		    removeAbandonedCall();
+		}
+	    }
+	}
+
+	/**
+	 * Marks the call as given up, a running call holds its thread until it returns
+	 */
+	void abandon() {
+	    if (!state.compareAndSet(QUEUED, DONE) && state.compareAndSet(RUNNING, ABANDONED)) {
+		addAbandonedCall();
+	    }
+	}
+    }
+
+    /**
+     * @return true if a call may be made, in half open state only one trial call at a time
+     */
+    private synchronized boolean tryAcquire() {
+	if (state == State.OPEN) {
+	    if (System.currentTimeMillis() - openedAt < openMs) {
+		return false;
+	    }
+	    state = State.HALF_OPEN;
+	}
+	if (state == State.HALF_OPEN) {
+	    if (trialCall) {
+		return false;
+	    }
+	    trialCall = true;
+	}
+	return true;
+    }
+
+    private synchronized void onSuccess() {
+	if (state != State.CLOSED) {
+	    LOG.info("Schema service answered again, circuit closed");
+	}
+	state = State.CLOSED;
+	consecutiveFailures = 0;
+	trialCall = false;
+    }
+
+    private synchronized void onFailure() {
+	failures.increment();
+	consecutiveFailures++;
+	if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+	    LOG.warn("Schema service failed {} consecutive calls, circuit opened for {} ms", consecutiveFailures,
+		    openMs);
+	    state = State.OPEN;
+	    openedAt = System.currentTimeMillis();
+	    opened.increment();
+	}
+	trialCall = false;
+    }
+
+    private synchronized void releaseTrial() {
+	trialCall = false;
+    }
+
+    synchronized State getState() {
+	return state;
+    }
+
+    long getTimeouts() {
+	return timeouts.sum();
+    }
+
+    long getFailures() {
+	return failures.sum();
+    }
+
+    long getShortCircuited() {
+	return shortCircuited.sum();
+    }
+
+    long getOpened() {
+	return opened.sum();
+    }
+
+    /**
+     * @return number of calls rejected as all threads were in use
+     */
+    long getBusy() {
+	return busy.sum();
+    }
+
+    /**
+     * @return number of timed out calls still holding a thread
+     */
+    int getAbandonedCalls() {
+	return abandonedCalls.get();
+    }
+
+    void shutdown() {
+	callExecutor.shutdownNow();
+    }
+
+    /**
+     * A schema service call that failed without an answer of the schema service
+     */
+    static final class UnavailableException extends Exception {
+	private final String reason;
+
+	UnavailableException(String reason, String message) {
+	    super(message);
+	    this.reason = reason;
+	}
+
+	/**
+	 * @return one of the REASON_ constants
+	 */
+	String getReason() {
+	    return reason;
+	}
+    }
+}
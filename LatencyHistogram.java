@@ -0,0 +1,164 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets in the style of HdrHistogram:
+ * values below 16 ns have a bucket each, above that every power of two is split into 8 buckets,
+ * so a recorded value is kept with a relative error below 12.5%.<br>
+ * Recording is lock-free and does not allocate, reading takes a copy of the counts that may be
+ * slightly inconsistent with concurrent recording.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * @param nanos
+     *            - latency to record, negative values are recorded as 0
+     */
+    void record(long nanos) {
+	long value = Math.max(nanos, 0);
+	counts.incrementAndGet(bucketOf(value));
+	sum.add(value);
+    }
+
+    static int bucketOf(long value) {
+	if (value < LINEAR_BUCKETS) {
+	    return (int) value;
+	}
+	int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+	return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @param bucket
+     * @return largest value recorded in the bucket
+     */
+    static long highestValueOf(int bucket) {
+	if (bucket < LINEAR_BUCKETS) {
+	    return bucket;
+	}
+	int shift = bucket / SUB_BUCKETS - 1;
+	long subBucket = bucket % SUB_BUCKETS + SUB_BUCKETS;
+	return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Adds the recorded values of another histogram.
+     *
+     * @param other
+     */
+    void add(LatencyHistogram other) {
+	for (int i = 0; i < BUCKETS; i++) {
+	    long count = other.counts.get(i);
+	    if (count != 0) {
+		counts.addAndGet(i, count);
+	    }
+	}
+	sum.add(other.sum.sum());
+    }
+
+    /**
+     * @return copy of the current counts
+     */
+    Snapshot snapshot() {
+	long[] copy = new long[BUCKETS];
+	long total = 0;
+	for (int i = 0; i < BUCKETS; i++) {
+	    copy[i] = counts.get(i);
+	    total += copy[i];
+	}
+	return new Snapshot(copy, total, sum.sum());
+    }
+
+    /**
+     * Removes all recorded values.
+     */
+    void reset() {
+	for (int i = 0; i < BUCKETS; i++) {
+	    counts.set(i, 0);
+	}
+	sum.reset();
+    }
+
+    /**
+     * Counts of a histogram at one point in time
+     */
+    static final class Snapshot {
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+
+	private Snapshot(long[] counts, long count, long sum) {
+	    this.counts = counts;
+	    this.count = count;
+	    this.sum = sum;
+	}
+
+	/**
+	 * @return number of recorded values
+	 */
+	long getCount() {
+	    return count;
+	}
+
+	/**
+	 * @return sum of the recorded values in nanoseconds
+	 */
+	long getSum() {
+	    return sum;
+	}
+
+	/**
+	 * @param nanos
+	 * @return number of recorded values in the buckets up to the value
+	 */
+	long getCountAtOrBelow(long nanos) {
+	    long below = 0;
+	    for (int i = 0; i < counts.length && highestValueOf(i) <= nanos; i++) {
+		below += counts[i];
+	    }
+	    return below;
+	}
+
+	/**
+	 * @param percentile
+	 *            - 0 to 100
+	 * @return highest value of the bucket holding the percentile, 0 if nothing was recorded
+	 */
+	long getValueAtPercentile(double percentile) {
+	    if (count == 0) {
+		return 0;
+	    }
+	    long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * count));
+	    long seen = 0;
+	    for (int i = 0; i < counts.length; i++) {
+		seen += counts[i];
+		if (seen >= rank) {
+		    return highestValueOf(i);
+		}
+	    }
+	    return highestValueOf(counts.length - 1);
+	}
+
+	/**
+	 * @return highest value of the bucket of the largest recorded value, 0 if nothing was recorded
+	 */
+	long getMax() {
+	    for (int i = counts.length - 1; i >= 0; i--) {
+		if (counts[i] > 0) {
+		    return highestValueOf(i);
+		}
+	    }
+	    return 0;
+	}
+    }
+}
@@ -0,0 +1,73 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link TemplateInvalidationChannel} within one JVM, for tests with several nodes in one process.
+ * Announcements are delivered on the publishing thread to the other open channels of the same
+ * group.
+ */
+public class LoopbackInvalidationChannel implements TemplateInvalidationChannel {
+
+    private static final Map<String, List<LoopbackInvalidationChannel>> GROUPS = new ConcurrentHashMap<>();
+
+    private final String group;
+    private volatile Listener listener;
+
+    /**
+     * @param group
+     *            - name of the group of channels announcements are delivered to
+     */
+    public LoopbackInvalidationChannel(String group) {
+	this.group = group;
+    }
+
+    /**
+     * Channel of the group named by the {@code cluster.loopbackGroup} property
+     */
+    public LoopbackInvalidationChannel() {
+	this(TemplateEnquiryConfig.CLUSTER_LOOPBACK_GROUP);
+    }
+
+    @Override
+    public void open(Listener listener) {
+	this.listener = listener;
+	List<LoopbackInvalidationChannel> members = GROUPS.get(group);
+	if (members == null) {
+	    GROUPS.putIfAbsent(group, new CopyOnWriteArrayList<LoopbackInvalidationChannel>());
+	    members = GROUPS.get(group);
+	}
+	members.add(this);
+    }
+
+    @Override
+    public void publish(TemplateInvalidation invalidation) {
+	List<LoopbackInvalidationChannel> members = GROUPS.get(group);
+	if (members == null) {
+	    return;
+	}
+	for (LoopbackInvalidationChannel member : members) {
+	    Listener receiver = member.listener;
+	    if (member != this && receiver != null) {
+		receiver.invalidated(invalidation);
+	    }
+	}
+    }
+
+    @Override
+    public void close() {
+	List<LoopbackInvalidationChannel> members = GROUPS.get(group);
+	if (members != null) {
+	    members.remove(this);
+	}
+	listener = null;
+    }
+
+    @Override
+    public String toString() {
+	return "loopback:" + group;
+    }
+}
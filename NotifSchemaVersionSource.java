@@ -0,0 +1,46 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.util.List;
+
+import com.ericsson.cel.impl.schema.SchemaConfigurationService;
+import com.ericsson.ntf.schema.NotifSchemaLookup;
+
+/**
+ * {@link SchemaVersionSource} backed by the SchemaConfigurationService of NotifSchemaLookup.
+ */
+class NotifSchemaVersionSource implements SchemaVersionSource {
+
+    private volatile SchemaConfigurationService schemaService;
+
+    @Override
+    public boolean isAvailable() {
+	return getSchemaService() != null;
+    }
+
+    @Override
+    public String getActiveVersion(String namespace, String schemaName) throws Exception {
+	return getAvailableSchemaService().getActiveVersionForSchema(namespace, schemaName);
+    }
+
+    @Override
+    public List<String> getVersions(String namespace, String schemaName) throws Exception {
+	return getAvailableSchemaService().getVersionsForSchema(namespace, schemaName, true, true);
+    }
+
+    // a missing schema service is a failure of the service, not an answer
+    private SchemaConfigurationService getAvailableSchemaService() throws IOException {
+	SchemaConfigurationService service = getSchemaService();
+	if (service == null) {
+	    throw new IOException("Schema service is not available");
+	}
+	return service;
+    }
+
+    private SchemaConfigurationService getSchemaService() {
+	if (schemaService == null) {
+	    schemaService = NotifSchemaLookup.getSchemaService();
+	}
+	return schemaService;
+    }
+}
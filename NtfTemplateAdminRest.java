@@ -0,0 +1,277 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.security.PermitAll;
+import javax.annotation.security.RolesAllowed;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+
+/**
+ * This class is the administration REST interface of the template enquiry resources. It gives
+ * access to the template/notification snapshot shared by {@link NtfTemplateRestExtNew} and
+ * {@link NtfTemplateRestExt}.<br>
+ * All methods but the readiness probe are restricted to the {@value #ADMIN_ROLE} role, as they
+ * expose internal state or trigger reloads from the server. The role check needs role based security
+ * of the container, e.g. {@code resteasy.role.based.security} set to true in web.xml.
+ */
+@Path("/ntf/notificationTemplateEnquiry/admin")
+@RolesAllowed(NtfTemplateAdminRest.ADMIN_ROLE)
+public class NtfTemplateAdminRest {
+
+    static final String ADMIN_ROLE = "ntf-admin";
+
+    private static final Logger LOG = LoggerFactory.getLogger(NtfTemplateAdminRest.class);
+
+    private final TemplateEnquiryContext context;
+
+    public NtfTemplateAdminRest(DataAccessEnablerInterface dae) {
+	context = TemplateEnquiryContext.forDataAccessEnabler(dae);
+    }
+
+    /**
+     * Method to get the readiness of the template resources, for the readiness probe of the node.
+     * The resources are ready once the warm-up after the start completed.
+     *
+     * @return 200 if ready, 503 until then, with the warm-up state
+     */
+    @GET
+    @Path("/ready")
+    @PermitAll
+    @Produces("application/json")
+    public Response getReadiness() {
+	TemplateEnquiryWarmUp warmUp = context.getWarmUp();
+	Map<String, Object> info = new LinkedHashMap<>();
+	info.put("ready", warmUp.isReady());
+	info.put("state", warmUp.getState().name());
+	info.put("startedAt", warmUp.getStartedAt());
+	info.put("readyAt", warmUp.getReadyAt());
+	info.put("attempts", warmUp.getAttempts());
+	if (warmUp.getLastFailure() != null) {
+	    info.put("lastFailure", warmUp.getLastFailure());
+	}
+	return Response.status(warmUp.isReady() ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE)
+		.entity(info).build();
+    }
+
+    /**
+     * Method to get the revision of the current template snapshot
+     *
+     * @return revision information of the snapshot
+     */
+    @GET
+    @Path("/snapshot")
+    @Produces("application/json")
+    public Response getSnapshot() {
+	return Response.ok().entity(getSnapshotInfo(context.getSnapshotCache().peek())).build();
+    }
+
+    /**
+     * Method to force a reload of the template snapshot from the server, to be used when a fresh read
+     * is needed before the next background reload
+     *
+     * @return revision information of the reloaded snapshot
+     */
+    @POST
+    @Path("/snapshot/refresh")
+    @Produces("application/json")
+    public Response refreshSnapshot() {
+	LOG.info("refreshSnapshot invoked");
+	try {
+	    return Response.ok().entity(getSnapshotInfo(context.getSnapshotCache().refresh())).build();
+	} catch (Exception e) {
+	    LOG.error("Exception in refreshing the template snapshot", e);
+	    return NtfTemplateRestExtNew.setErrorResponse(NtfTemplateRestExtNew.EXCEPTION_CODE,
+		    "Exception in refreshing the template snapshot - " + e.getMessage());
+	}
+    }
+
+    /**
+     * Method to schedule a background reload of the template snapshot
+     *
+     * @return accepted
+     */
+    @POST
+    @Path("/snapshot/invalidate")
+    public Response invalidateSnapshot() {
+	LOG.info("invalidateSnapshot invoked");
+	context.getSnapshotCache().invalidate();
+	return Response.status(Response.Status.ACCEPTED).build();
+    }
+
+    /**
+     * Method to get the size and hit/miss statistics of the schema version cache and the state of the
+     * schema service circuit breaker
+     *
+     * @return statistics of the schema version cache
+     */
+    @GET
+    @Path("/schemaCache")
+    @Produces("application/json")
+    public Response getSchemaCache() {
+	SchemaVersionCache cache = context.getSchemaVersionCache();
+	Map<String, Object> info = new LinkedHashMap<>();
+	info.put("size", cache.size());
+	info.put("hits", cache.getHits());
+	info.put("misses", cache.getMisses());
+	info.put("refreshes", cache.getRefreshes());
+	info.put("evictions", cache.getEvictions());
+	info.put("loadFailures", cache.getLoadFailures());
+	info.put("fallbacks", cache.getFallbacks());
+	GuardedSchemaVersionSource source = context.getSchemaVersionSource();
+	info.put("circuitState", source.getState().name());
+	info.put("callTimeouts", source.getTimeouts());
+	info.put("callFailures", source.getFailures());
+	info.put("callsShortCircuited", source.getShortCircuited());
+	info.put("circuitOpened", source.getOpened());
+	info.put("callsBusy", source.getBusy());
+	info.put("callsAbandoned", source.getAbandonedCalls());
+	return Response.ok().entity(info).build();
+    }
+
+    /**
+     * Method to drop all cached schema versions, e.g. after a schema was activated
+     *
+     * @return accepted
+     */
+    @POST
+    @Path("/schemaCache/invalidate")
+    public Response invalidateSchemaCache() {
+	LOG.info("invalidateSchemaCache invoked");
+	context.getSchemaVersionCache().invalidateAll();
+	return Response.status(Response.Status.ACCEPTED).build();
+    }
+
+    /**
+     * Method to get the size and hit/miss statistics of the response cache
+     *
+     * @return statistics of the response cache
+     */
+    @GET
+    @Path("/responseCache")
+    @Produces("application/json")
+    public Response getResponseCache() {
+	TemplateResponseCache cache = context.getResponseCache();
+	Map<String, Object> info = new LinkedHashMap<>();
+	info.put("size", cache.size());
+	info.put("bytes", cache.getBytes());
+	info.put("hits", cache.getHits());
+	info.put("misses", cache.getMisses());
+	info.put("evictions", cache.getEvictions());
+	return Response.ok().entity(info).build();
+    }
+
+    /**
+     * Method to drop all cached responses
+     *
+     * @return accepted
+     */
+    @POST
+    @Path("/responseCache/invalidate")
+    public Response invalidateResponseCache() {
+	LOG.info("invalidateResponseCache invoked");
+	context.getResponseCache().invalidateAll();
+	return Response.status(Response.Status.ACCEPTED).build();
+    }
+
+    /**
+     * Method to get the statistics of the coalescing of identical concurrent template requests
+     *
+     * @return number of response builds and of requests served by another request's build
+     */
+    @GET
+    @Path("/coalescing")
+    @Produces("application/json")
+    public Response getCoalescing() {
+	SingleFlight<String, byte[]> responseBuilds = context.getResponseBuilds();
+	Map<String, Object> info = new LinkedHashMap<>();
+	info.put("inFlight", responseBuilds.getInFlight());
+	info.put("builds", responseBuilds.getExecutions());
+	info.put("coalesced", responseBuilds.getCoalesced());
+	return Response.ok().entity(info).build();
+    }
+
+    /**
+     * Method to get the statistics of the admission control of the template requests
+     *
+     * @return number of running queries of all applicationIds and of rejected requests
+     */
+    @GET
+    @Path("/admission")
+    @Produces("application/json")
+    public Response getAdmission() {
+	TemplateAdmissionControl admission = context.getAdmissionControl();
+	Map<String, Object> info = new LinkedHashMap<>();
+	info.put("activeAllAppsQueries", admission.getActiveExpensiveQueries());
+	info.put("rejectedByApplicationId", admission.getRejectedByApp());
+	info.put("rejectedByClient", admission.getRejectedByClient());
+	info.put("rejectedAllAppsQueries", admission.getRejectedExpensive());
+	return Response.ok().entity(info).build();
+    }
+
+    /**
+     * Method to get the state of the announcement of template changes to the other nodes
+     *
+     * @return node id, channel, clock and number of sent and received announcements
+     */
+    @GET
+    @Path("/cluster")
+    @Produces("application/json")
+    public Response getCluster() {
+	TemplateClusterInvalidation cluster = context.getClusterInvalidation();
+	Map<String, Object> info = new LinkedHashMap<>();
+	if (cluster == null) {
+	    info.put("channel", "none");
+	    return Response.ok().entity(info).build();
+	}
+	info.put("nodeId", cluster.getNodeId());
+	info.put("epoch", cluster.getEpoch());
+	info.put("channel", cluster.getChannel());
+	info.put("clock", cluster.getClock());
+	info.put("knownNodes", cluster.getKnownNodes());
+	info.put("sent", cluster.getSent());
+	info.put("sendFailures", cluster.getSendFailures());
+	info.put("received", cluster.getReceived());
+	info.put("applied", cluster.getApplied());
+	return Response.ok().entity(info).build();
+    }
+
+    /**
+     * Method to get the latency histograms of the enquiry stages and the row, DAE call, schema lookup
+     * and error code counters
+     *
+     * @return metrics in the Prometheus text format
+     */
+    @GET
+    @Path("/metrics")
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public Response getMetrics() {
+	return Response.ok().entity(context.getMetrics().toPrometheusText()).build();
+    }
+
+    private Map<String, Object> getSnapshotInfo(TemplateDataSnapshot snapshot) {
+	Map<String, Object> info = new LinkedHashMap<>();
+	if (snapshot != null) {
+	    info.put("revision", snapshot.getRevision());
+	    info.put("modifiedAt", snapshot.getModifiedAt());
+	    info.put("templates", snapshot.getTemplateCount());
+	    info.put("notifications", snapshot.getNotificationIndex().size());
+	}
+	info.put("lastCheckedAt", context.getSnapshotCache().getLastCheckedAt());
+	info.put("appliedChanges", context.getSnapshotCache().getAppliedChanges());
+	TemplateChangeLog changeLog = context.getChangeLog();
+	info.put("changeLogBaseRevision", changeLog.getBaseRevision());
+	info.put("changeLogRevisions", changeLog.getRevisions());
+	info.put("changeLogKeys", changeLog.getKeyCount());
+	return info;
+    }
+}
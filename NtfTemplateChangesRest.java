@@ -0,0 +1,220 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Providers;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.common.util.NtfUtils;
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+import com.ericsson.ntf.ext.webservices.TemplateChangeListener.ChangeType;
+
+/**
+ * This class is the delta sync REST interface next to {@link NtfTemplateRestExtNew}. A PAC reads
+ * the full template list once, keeps the sync token of that response and then only asks for the
+ * templates changed since its token.<br>
+ * Sync tokens name the change log of the node that issued them, so in a cluster the requests of a
+ * client have to be routed to the same node. A token of another node is answered with 410.
+ */
+@Path("/ntf/notificationTemplateEnquiry/v1/notificationTemplate/changes")
+public class NtfTemplateChangesRest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NtfTemplateChangesRest.class);
+
+    static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+    @Context
+    HttpServletRequest request;
+
+    @Context
+    Providers providers;
+
+    private final TemplateEnquiryContext context;
+
+    // JSON serializer using the writers of the runtime, resolved on the first request
+    private volatile TemplateJsonSerializer serializer;
+
+    public NtfTemplateChangesRest(DataAccessEnablerInterface dae) {
+	context = TemplateEnquiryContext.forDataAccessEnabler(dae);
+    }
+
+    /**
+     * Method to get the templates changed since a sync token as NDJSON, one line per changed
+     * (applicationId, templateId):<br>
+     * {"change":"added|updated|deleted","applicationId":"..","id":"..","rows":[..]}<br>
+     * The rows replace all rows the client has for the (applicationId, templateId), they are empty
+     * for deleted templates. The token of the returned state is in the Ntf-Sync-Token header, as in
+     * the responses of the full list. Without the 'since' parameter only the token of the current
+     * data is returned.<br>
+     * If the changes since the token are no longer known, e.g. after a restart, for a token of
+     * another node or after a change of the versions of a schema used by the rows of the query, the
+     * request fails with 410 and the client has to read the full list again.
+     *
+     * @return changed templates or error response
+     */
+    @GET
+    @Produces(MEDIA_TYPE_NDJSON)
+    public Response getChanges() {
+	String since = request.getParameter("since");
+	String appId = request.getParameter("applicationId");
+	String category = request.getParameter("category");
+	LOG.debug("getChanges invoked with since='{}', appId='{}', category='{}'", since, appId, category);
+
+	if (appId == null || appId.length() == 0) {
+	    appId = TemplateQuery.ALL_APPS;
+	}
+	if (category != null && category.length() == 0) {
+	    return NtfTemplateRestExtNew.setErrorResponse(NtfTemplateRestExtNew.INVALID_CATEGORY,
+		    "category parameter set is empty");
+	}
+	TemplateQuery query = TemplateQuery.of(appId, category, NtfTemplateRestExtNew.profileV1);
+	Response rejected = context.getAdmissionControl().admitRequest(query, request);
+	if (rejected != null) {
+	    return rejected;
+	}
+	try {
+	    TemplateDataSnapshot snapshot = context.getSnapshotCache().get();
+	    long schemaGeneration = context.getSchemaVersionCache().getGeneration();
+	    TemplateChangeLog changeLog = context.getChangeLog();
+	    String token = new TemplateSyncToken(changeLog.getEpoch(), snapshot.getRevision(), schemaGeneration)
+		    .encode();
+	    if (since == null) {
+		return getOkResponse(new byte[0], token);
+	    }
+
+	    TemplateSyncToken sinceToken = TemplateSyncToken.decode(since);
+	    Map<TemplateKey, ChangeType> changes = sinceToken.getEpoch() == changeLog.getEpoch()
+		    && !hasSchemaChanges(query, sinceToken.getSchemaGeneration(), schemaGeneration)
+			    ? changeLog.getChangesSince(sinceToken.getRevision(), snapshot.getRevision())
+			    : null;
+	    if (changes == null) {
+		throw new NtfRestException(NtfTemplateRestExtNew.RESYNC_REQUIRED,
+			"changes since token " + since + " are not known, read the full template list");
+	    }
+	    byte[] body = toNdjson(query, snapshot, changes);
+	    LOG.info("Template changes since revision {} up to revision {}: {} changed keys, {} bytes",
+		    sinceToken.getRevision(), snapshot.getRevision(), changes.size(), body.length);
+	    return getOkResponse(body, token);
+	} catch (NtfRestException ntfEx) {
+	    LOG.error("Exception handled: {}", ntfEx.getMessage());
+	    return NtfTemplateRestExtNew.setErrorResponse(ntfEx.getErrorCode(), ntfEx.getMessage());
+	} catch (Exception e) {
+	    LOG.error("Exception in getting the Template changes for applicationId {}", appId, e);
+	    return NtfTemplateRestExtNew.setErrorResponse(NtfTemplateRestExtNew.EXCEPTION_CODE,
+		    "Exception in getting the Template changes for applicationId :" + appId + " - " + e.getMessage());
+	}
+    }
+
+    /**
+     * @return true if the rows of the query may carry other schema versions than at the generation
+     *         of the token, schema changes of other applicationIds or categories are ignored
+     */
+    private boolean hasSchemaChanges(TemplateQuery query, long sinceGeneration, long schemaGeneration) {
+	if (sinceGeneration == schemaGeneration) {
+	    return false;
+	}
+	// a generation above the current one is from another node or process
+	return sinceGeneration > schemaGeneration
+		|| context.getRowJoin().hasSchemaChangesSince(query, sinceGeneration);
+    }
+
+    private static Response getOkResponse(byte[] body, String token) {
+	return Response.ok()
+		.header(NtfTemplateRestExtNew.RESPONSE_HEADER_AccessContorlAllowOrigin,
+			NtfTemplateRestExtNew.RESPONSE_HEADER_CORS)
+		.header(NtfTemplateRestExtNew.RESPONSE_HEADER_ContentType, MEDIA_TYPE_NDJSON + "; charset=utf-8")
+		.header(NtfTemplateRestExtNew.RESPONSE_HEADER_SYNC_TOKEN, token).entity(body).build();
+    }
+
+    private byte[] toNdjson(TemplateQuery query, TemplateDataSnapshot snapshot, Map<TemplateKey, ChangeType> changes)
+	    throws Exception {
+	TemplateJsonSerializer serializer = getSerializer();
+	TemplateRowJoin rowJoin = context.getRowJoin();
+	Set<String> appIds = query.isAllApps() ? null : new HashSet<>(query.getAppIds());
+	ByteArrayOutputStream out = new ByteArrayOutputStream(256 + changes.size() * 256);
+	long joinNanos = 0;
+	int rowCount = 0;
+	for (Map.Entry<TemplateKey, ChangeType> change : changes.entrySet()) {
+	    TemplateKey key = change.getKey();
+	    String appId = NtfUtils.safeToString(key.getAppId());
+	    if (appIds != null && !appIds.contains(appId)) {
+		continue;
+	    }
+	    List<Template> group = snapshot.getTemplateGroup(key);
+	    List<TemplateBase> rows = null;
+	    if (group != null) {
+		long start = System.nanoTime();
+		rows = rowJoin.getRowsFromTemplate(snapshot, group, query.getCategory(),
+			NtfTemplateRestExtNew.VERSION_2);
+		joinNanos += System.nanoTime() - start;
+		rowCount += rows.size();
+	    }
+	    if (change.getValue() == ChangeType.ADDED && (rows == null || rows.isEmpty())) {
+		// nothing of the category was added
+		continue;
+	    }
+	    writeLine(out, change.getValue(), appId, NtfUtils.safeToString(key.getTemplateId()),
+		    rows == null ? "[]".getBytes(StandardCharsets.UTF_8) : serializer.serialize(rows));
+	}
+	rowJoin.recordJoin(joinNanos, rowCount);
+	return out.toByteArray();
+    }
+
+    /**
+     * @return serializer using the JSON writers of the runtime, they are resolved on first use
+     */
+    private TemplateJsonSerializer getSerializer() throws IOException {
+	TemplateJsonSerializer current = serializer;
+	if (current == null) {
+	    current = new TemplateJsonSerializer(providers);
+	    serializer = current;
+	}
+	return current;
+    }
+
+    private static void writeLine(ByteArrayOutputStream out, ChangeType change, String appId, String templateId,
+	    byte[] rows) throws IOException {
+	StringBuilder line = new StringBuilder(64);
+	line.append("{\"change\":\"").append(change.name().toLowerCase(Locale.ROOT)).append("\",\"applicationId\":");
+	appendString(line, appId);
+	line.append(",\"id\":");
+	appendString(line, templateId);
+	line.append(",\"rows\":");
+	out.write(line.toString().getBytes(StandardCharsets.UTF_8));
+	out.write(rows);
+	out.write('}');
+	out.write('\n');
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+	out.append('"');
+	for (int i = 0; i < value.length(); i++) {
+	    char c = value.charAt(i);
+	    if (c == '"' || c == '\\') {
+		out.append('\\').append(c);
+	    } else if (c < 0x20) {
+		out.append(String.format("\\u%04x", (int) c));
+	    } else {
+		out.append(c);
+	    }
+	}
+	out.append('"');
+    }
+}
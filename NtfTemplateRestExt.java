@@ -3,6 +3,7 @@ package com.ericsson.ntf.ext.webservices;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
@@ -13,14 +14,15 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.UriInfo;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ericsson.bss.cil.cdal.ntf.Interface.ReadFrom;
-import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
 import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtDomain.TemplateBase;
 import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtDomain.Template_v1;
 import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtDomain.Template_v2;
@@ -50,8 +52,13 @@ public class NtfTemplateRestExt {
     @Context
     HttpServletResponse response;
 
+    @Context
+    Request restRequest;
+
     private DataAccessEnablerInterface daeIntf;
 
+    private final TemplateEnquiryContext context;
+
     // The following header is optional in the request. If not specified, the JSON object of the
     // version 1_0_0 will be returned in the response content.
 
@@ -73,6 +80,8 @@ public class NtfTemplateRestExt {
     protected static final String RESPONSE_HEADER_NAME = "Content-Type";
     protected static final String RESPONSE_HEADER_NAME1 = "Access-Control-Allow-Origin";
     protected static final String RESPONSE_HEADER_SUCCESS_v4 = "*";
+    protected static final String RESPONSE_HEADER_ETAG = "ETag";
+    protected static final String RESPONSE_HEADER_LAST_MODIFIED = "Last-Modified";
 
     // Value in Response header for an error scenario
     protected static final String RESPONSE_HEADER_ERROR = "application/json; charset=utf-8; profile=http://ericsson.com/bss.ntf.errorSchema.1_0_0.json#";
@@ -86,6 +95,8 @@ public class NtfTemplateRestExt {
 
     public NtfTemplateRestExt(DataAccessEnablerInterface dae) {
 	daeIntf = dae;
+	context = TemplateEnquiryContext.forDataAccessEnabler(dae);
+	context.startWarmUp(dae);
     }
 
     /**
@@ -154,30 +165,48 @@ public class NtfTemplateRestExt {
 		List<Template> tempList;
 		Object retRows = null;
 
-		if (idList.contains("*")) {
+		// templates and notifications are read from the periodically reloaded snapshot
+		TemplateDataSnapshot snapshot = context.getSnapshotCache().get();
+
+		// conditional GET, answered without building the response. Named ids are tagged with the
+		// content of their own data.
+		boolean allIds = idList.contains("*");
+		long dataHash = allIds ? snapshot.getDataHash()
+			: snapshot.getDataHash(TemplateQuery.of(idParam, categoryParam, "template"));
+		EntityTag eTag = TemplateEntityTag.of(dataHash, 0,
+			"template|" + versionParam + "|" + idParam + "|" + categoryParam);
+		Date lastModified = TemplateEntityTag.lastModified(snapshot, 0);
+		ResponseBuilder notModified = restRequest.evaluatePreconditions(lastModified, eTag);
+		if (notModified != null) {
+		    LOG.debug("Template list for id {} not modified", idParam);
+		    return notModified.build();
+		}
 
-		    tempList = daeIntf.getAllTemplate(ReadFrom.SERVER);
-		    if (tempList != null && tempList.size() > 0) {
-			retRows = getRowsFromTemplate(tempList, categoryParam, versionParam);
+		if (allIds) {
+		    // v2 and v3 only join the templates of the category
+		    tempList = categoryParam != null && (VERSION_2.equalsIgnoreCase(versionParam)
+			    || VERSION_3.equalsIgnoreCase(versionParam))
+				    ? snapshot.getCategoryIndex().getTemplatesIgnoreCase(categoryParam)
+				    : snapshot.getTemplates();
+		    if (tempList.size() > 0) {
+			retRows = getRowsFromTemplate(snapshot, tempList, categoryParam, versionParam);
 		    }
 		} else {
 
-		    tempList = new ArrayList<>();
-		    for (String appId : idArr) {
-			List<Template> templateForApp = daeIntf.getTemplateForApp(appId);
-			if (templateForApp != null && templateForApp.size() > 0)
-			    tempList.addAll(templateForApp);
-		    }
+		    tempList = snapshot.getTemplatesOfApps(idList);
 		    if (tempList.size() > 0) {
-			retRows = getRowsFromTemplate(tempList, categoryParam, versionParam);
+			retRows = getRowsFromTemplate(snapshot, tempList, categoryParam, versionParam);
 		    }
 		}
 		if (retRows != null && ((List<Object>) retRows).size() > 0) {
+		    response.setHeader(RESPONSE_HEADER_ETAG, TemplateEntityTag.toHeaderValue(eTag));
+		    response.setDateHeader(RESPONSE_HEADER_LAST_MODIFIED, lastModified.getTime());
 		    return retRows;
 		}
 		String detailMsg = "pacId:" + idParam + " not found.";
 
 		setErrorHeader();
+		context.getMetrics().countError(NOT_FOUND_CODE);
 
 		return setErrorResponse(HttpServletResponse.SC_NOT_FOUND, NOT_FOUND_CODE, "PAC not found.", detailMsg);
 	    }
@@ -187,6 +216,7 @@ public class NtfTemplateRestExt {
 	    // Instead of throwing the entire exception, only send the error message
 
 	    setErrorHeader();
+	    context.getMetrics().countError(EXCEPTION_CODE);
 	    return setErrorResponse(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, EXCEPTION_CODE, e.getMessage(),
 		    "Exception in getting the Template list for id :" + idParam);
 
@@ -195,35 +225,34 @@ public class NtfTemplateRestExt {
 	return null;
     }
 
-    private ArrayList<TemplateBase> getRowsFromTemplate(List<Template> templateList, String category, String version)
-	    throws Exception
+    ArrayList<TemplateBase> getRowsFromTemplate(TemplateDataSnapshot snapshot, List<Template> templateList,
+	    String category, String version) throws Exception
 
     {
-	LOG.info("getRowsFromTemplate invoked with category = {} , verison = {} for template size = {}", category,
+	LOG.debug("getRowsFromTemplate invoked with category = {} , verison = {} for template size = {}", category,
 		version, templateList.size());
 
 	ArrayList<TemplateBase> retList = new ArrayList<>();
+	long start = System.nanoTime();
 
-	List<Notification> allNotification = daeIntf.getAllNotification(ReadFrom.SERVER);
+	TemplateCategoryIndex categoryIndex = snapshot.getCategoryIndex();
+	boolean filterCategory = category != null && version != null
+		&& (version.equalsIgnoreCase(VERSION_2) || version.equalsIgnoreCase(VERSION_3));
 
 	for (Template template : templateList) {
 
 	    try {
+		// category of the first notification of the templateId
+		String templateCategory = categoryIndex.getLegacyCategory(template);
+		if (filterCategory && !category.equalsIgnoreCase(templateCategory)) {
+		    continue;
+		}
 		String templateId = NtfUtils.safeToString(template.getTemplateId());
 		String templateName = NtfUtils.safeToString(template.getTemplateName());
 		String pacId = NtfUtils.safeToString(template.getAppId());
 		String description = NtfUtils.safeToString(template.getDescription());
-		String templateCategory = "";
-
-		for (Notification notification : allNotification) {
-		    if (NtfUtils.safeEqualsString(notification.getTemplateId(), templateId)) {
-			templateCategory = notification.getCategory() == null ? ""
-				: notification.getCategory().toString();
-			break;
-		    }
-		}
 
-		LOG.info("Found Template Category = {}", templateCategory);
+		LOG.trace("Found Template Category = {}", templateCategory);
 
 		TemplateBase row = new TemplateBase();
 
@@ -260,6 +289,8 @@ public class NtfTemplateRestExt {
 		throw e;
 	    }
 	}
+	context.getMetrics().recordStage(TemplateEnquiryMetrics.STAGE_JOIN, start);
+	context.getMetrics().countRows(retList.size());
 	return retList;
     }
 
@@ -3,10 +3,14 @@ package com.ericsson.ntf.ext.webservices;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -15,24 +19,26 @@ import javax.ws.rs.HeaderParam;
 import javax.ws.rs.OPTIONS;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.container.TimeoutHandler;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.Providers;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.ericsson.bss.cil.cdal.ntf.Interface.ReadFrom;
-import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
 import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
-import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.Template_v2;
 import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
-import com.ericsson.cel.impl.schema.SchemaConfigurationService;
 import com.ericsson.ntf.common.util.NtfUtils;
 import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
-import com.ericsson.ntf.schema.NotifSchemaLookup;
 
 /**
  * This class is the REST interface to be used by the external PAC's . It supports only the READ
@@ -45,8 +51,6 @@ import com.ericsson.ntf.schema.NotifSchemaLookup;
 @Path("/ntf/notificationTemplateEnquiry/v1/notificationTemplate")
 public class NtfTemplateRestExtNew {
 
-    private static final String SCHEMA_NAMESPACE = "com.ericsson.cel.cer.ntf";
-
     private static final Logger LOG = LoggerFactory.getLogger(NtfTemplateRestExtNew.class);
 
     @Context
@@ -57,9 +61,19 @@ public class NtfTemplateRestExtNew {
     @Context
     HttpServletResponse response;
 
+    @Context
+    Providers providers;
+
+    @Context
+    Request restRequest;
+
     private DataAccessEnablerInterface daeIntf;
 
-    SchemaConfigurationService schemaService;
+    private final TemplateEnquiryContext context;
+
+    // JSON serializer using the writers of the runtime, resolved on the first request
+    private volatile TemplateJsonSerializer serializer;
+    private static final TemplateCborSerializer CBOR_SERIALIZER = new TemplateCborSerializer();
 
     // Version 1.0 will return template id+keywords
     protected static final String VERSION_1 = "v1";
@@ -70,11 +84,17 @@ public class NtfTemplateRestExtNew {
 
     // Header in the Request
     protected static final String REQUEST_HEADER_ACCEPT = "Accept";
+    protected static final String REQUEST_HEADER_ACCEPT_ENCODING = "Accept-Encoding";
 
     // Header in the Response
     protected static final String RESPONSE_HEADER_ContentType = "Content-Type";
     protected static final String RESPONSE_HEADER_AccessContorlAllowOrigin = "Access-Control-Allow-Origin";
     protected static final String RESPONSE_HEADER_CORS = "*";
+    protected static final String RESPONSE_HEADER_CONTENT_ENCODING = "Content-Encoding";
+    protected static final String RESPONSE_HEADER_VARY = "Vary";
+    // request headers the representation depends on
+    private static final String VARY = TemplateEnquiryConfig.COMPRESSION_MIN_BYTES >= 0
+	    ? REQUEST_HEADER_ACCEPT + ", " + REQUEST_HEADER_ACCEPT_ENCODING : REQUEST_HEADER_ACCEPT;
 
     protected static final String profileErr = "profile=http://ericsson.com/bss.ntf.errorSchema.1.json#";
     protected static final String profileV1 = "profile=http://ericsson.com/bss.ntf.notificationTemplateEnquiry.1.json#";
@@ -88,64 +108,426 @@ public class NtfTemplateRestExtNew {
     protected static final String RESPONSE_HEADER_SUCCESS_v1 = HEADER_PREFIX + profileV1;
     protected static final String RESPONSE_HEADER_SUCCESS_v2 = HEADER_PREFIX + profileV2;
     protected static final String RESPONSE_HEADER_SUCCESS_v3 = HEADER_PREFIX + profileV3;
+    // Value in Response header for a success scenario in the binary representation of profileV1
+    protected static final String RESPONSE_HEADER_SUCCESS_CBOR_v1 = TemplateCborSerializer.MEDIA_TYPE + "; "
+	    + profileV1;
 
     // Error Code Label
     protected static final String RESPONSE_HEADER_ERROR_CODE = "Ntf-Error-Code";
     protected static final String RESPONSE_HEADER_ERROR_MESSAGE = "Ntf-Error-Message";
 
+    // Paging
+    protected static final String RESPONSE_HEADER_LINK = "Link";
+    protected static final String RESPONSE_HEADER_NEXT_CURSOR = "Ntf-Next-Cursor";
+
+    // Delta sync, token of the returned data for NtfTemplateChangesRest
+    protected static final String RESPONSE_HEADER_SYNC_TOKEN = "Ntf-Sync-Token";
+    protected static final String RESPONSE_HEADER_RETRY_AFTER = "Retry-After";
+
     // Error Codes
     protected static final String NOT_FOUND_CODE = "ntf.notificationTemplateEnquiry.templateNotFound";
     protected static final String INVALID_TEMPLATE_VERSION = "ntf.notificationTemplateEnquiry.invalidTemplateVersion";
     protected static final String INVALID_CATEGORY = "ntf.notificationTemplateEnquiry.invalidCategory";
+    protected static final String INVALID_LIMIT = "ntf.notificationTemplateEnquiry.invalidLimit";
+    protected static final String INVALID_CURSOR = "ntf.notificationTemplateEnquiry.invalidCursor";
+    protected static final String INVALID_SYNC_TOKEN = "ntf.notificationTemplateEnquiry.invalidSyncToken";
+    protected static final String RESYNC_REQUIRED = "ntf.notificationTemplateEnquiry.resyncRequired";
     protected static final String EXCEPTION_CODE = "ntf.notificationTemplateEnquiry.Exception";
+    protected static final String TIMEOUT_CODE = "ntf.notificationTemplateEnquiry.timeout";
+    protected static final String OVERLOADED_CODE = "ntf.notificationTemplateEnquiry.overloaded";
+    protected static final String RATE_LIMITED_CODE = "ntf.notificationTemplateEnquiry.rateLimited";
+
+    // not in Response.Status of JAX-RS 2.0
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
 
     public NtfTemplateRestExtNew(DataAccessEnablerInterface dae) {
 	daeIntf = dae;
+	context = TemplateEnquiryContext.forDataAccessEnabler(dae);
+	context.startWarmUp(dae);
     }
 
     /**
-     * Method to get list of templates for a given or all ApplicationID (PAC).
+     * Method to get list of templates for a given or all ApplicationID (PAC).<br>
+     * With the 'limit' or 'cursor' request parameter the list is returned in pages, the cursor of the
+     * next page is returned in the Ntf-Next-Cursor header and as 'next' Link.<br>
+     * The Ntf-Sync-Token header names the returned data for the changes since it, see
+     * {@link NtfTemplateChangesRest}.<br>
+     * Conditional and cached requests are answered on the request thread, all other requests are
+     * suspended and answered from the enquiry executor within the request timeout.<br>
+     * Responses from {@code compression.minBytes} bytes are gzip or deflate coded if the
+     * Accept-Encoding header allows it.<br>
+     * Clients preferring application/cbor in the Accept header get the profileV1 rows as CBOR, the
+     * profile parameter is checked as for JSON.<br>
+     * Requests above the rate of their applicationId or client, and requests for all applicationIds
+     * while too many of them are built, are rejected with 429 and a Retry-After header.
      * 
      * @param acceptHeader
-     * @return List of template Object.
-     * @throws IOException
+     * @param asyncResponse
+     *            - resumed with the list of template Object
      */
     @GET
-    @Produces("application/json")
-    public Response getData(@HeaderParam("Accept") String acceptHeader) throws IOException {
+    @Produces({ "application/json", TemplateCborSerializer.MEDIA_TYPE })
+    public void getData(@HeaderParam("Accept") String acceptHeader, @Suspended final AsyncResponse asyncResponse) {
 	LOG.info("getData invoked");
 	LOG.debug("acceptHeader = '{}'", acceptHeader);
+	final long startNanos = System.nanoTime();
 
 	String version = getSchemaVersion(acceptHeader);
 	String appId = request.getParameter("applicationId");
 	String category = request.getParameter("category");
+	String limitParam = request.getParameter("limit");
+	String cursorParam = request.getParameter("cursor");
+	String acceptEncoding = request.getHeader(REQUEST_HEADER_ACCEPT_ENCODING);
 
-	LOG.debug("appId='{}', category='{}', version='{}'", appId, category, version);
+	LOG.debug("appId='{}', category='{}', version='{}', limit='{}', cursor='{}'", appId, category, version,
+		limitParam, cursorParam);
 
 	if (appId == null || appId.length() == 0) {
 	    appId = "*";
 	}
 	if (category != null && category.length() == 0) {
-	    return setErrorResponse(INVALID_CATEGORY, "category parameter set is empty");
+	    resume(asyncResponse, setErrorResponse(INVALID_CATEGORY, "category parameter set is empty"), startNanos);
+	    return;
 	}
 
-	List<TemplateBase> ret;
+	final Enquiry enquiry;
 	try {
-	    if (version == null || version.equals(profileV1)) {
-		ret = getTemplateData(VERSION_2, appId, category);
-	    } else {
-		return setErrorResponse(INVALID_TEMPLATE_VERSION, "profile set in Accept Header Param is " + version);
+	    if (version != null && !version.equals(profileV1)) {
+		resume(asyncResponse,
+			setErrorResponse(INVALID_TEMPLATE_VERSION, "profile set in Accept Header Param is " + version),
+			startNanos);
+		return;
+	    }
+	    boolean cbor = TemplateCborSerializer.isPreferred(acceptHeader);
+	    TemplateQuery query = TemplateQuery.of(appId, category, cbor ? RESPONSE_HEADER_SUCCESS_CBOR_v1 : profileV1);
+	    Response rejected = context.getAdmissionControl().admitRequest(query, request);
+	    if (rejected != null) {
+		resume(asyncResponse, rejected, startNanos);
+		return;
+	    }
+	    enquiry = prepareEnquiry(cbor ? RESPONSE_HEADER_SUCCESS_CBOR_v1 : acceptHeader, acceptEncoding, query,
+		    limitParam, cursorParam);
+	} catch (NtfRestException ntfEx) {
+	    resume(asyncResponse, getErrorResponse(ntfEx), startNanos);
+	    return;
+	}
+	if (enquiry.response != null) {
+	    resume(asyncResponse, enquiry.response, startNanos);
+	    return;
+	}
+
+	asyncResponse.setTimeoutHandler(new TimeoutHandler() {
+	    @Override
+	    public void handleTimeout(AsyncResponse timedOut) {
+		LOG.error("Template request for query '{}' timed out", enquiry.query);
+		resume(timedOut, setErrorResponse(TIMEOUT_CODE, "Template request for applicationId :"
+			+ enquiry.query.getAppIdParam() + " not answered in time"), startNanos);
+	    }
+	});
+	asyncResponse.setTimeout(TemplateEnquiryConfig.REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+	if (enquiry.limit == 0 && !enquiry.streamed) {
+	    answerFromBuild(asyncResponse, enquiry, startNanos);
+	    return;
+	}
+	final TemplateAdmissionControl admission = context.getAdmissionControl();
+	if (!admission.tryAcquire(enquiry.query)) {
+	    LOG.debug("Template request for query '{}' rejected, too many concurrent queries", enquiry.query);
+	    resume(asyncResponse, getConcurrencyLimitResponse(enquiry.query), startNanos);
+	    return;
+	}
+	try {
+	    context.getExecutors().getRequestExecutor().execute(new Runnable() {
+		@Override
+		public void run() {
+		    if (asyncResponse.isDone()) {
+			admission.release(enquiry.query);
+		    } else if (enquiry.streamed) {
+			answerStreamed(asyncResponse, enquiry, startNanos);
+		    } else {
+			try {
+			    resume(asyncResponse, getResponse(enquiry), startNanos);
+			} finally {
+			    admission.release(enquiry.query);
+			}
+		    }
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    admission.release(enquiry.query);
+	    LOG.error("Template request for query '{}' rejected, executor is saturated", enquiry.query);
+	    resume(asyncResponse, setErrorResponse(OVERLOADED_CODE, "Too many concurrent template requests"),
+		    startNanos);
+	}
+    }
+
+    /**
+     * Resumes the request and records its duration and error code, unless it was already answered.
+     * The duration of a streamed response ends when the streaming starts.
+     * 
+     * @return false if the request was already answered
+     */
+    private boolean resume(AsyncResponse asyncResponse, Response response, long startNanos) {
+	if (asyncResponse.resume(response)) {
+	    TemplateEnquiryMetrics metrics = context.getMetrics();
+	    metrics.recordStage(TemplateEnquiryMetrics.STAGE_REQUEST, startNanos);
+	    metrics.countError(response.getHeaderString(RESPONSE_HEADER_ERROR_CODE));
+	    return true;
+	}
+	return false;
+    }
+
+    /**
+     * Prepares a request on the request thread: resolves the snapshot, evaluates the conditional
+     * headers and looks up the response cache. Everything needing the request context is captured
+     * here.
+     * 
+     * @return the enquiry, with its response set if the request is already answered
+     * @throws NtfRestException
+     */
+    private Enquiry prepareEnquiry(String contentType, String acceptEncoding, TemplateQuery query,
+	    String limitParam, String cursorParam) throws NtfRestException {
+	Enquiry enquiry = new Enquiry(contentType, query,
+		System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TemplateEnquiryConfig.REQUEST_TIMEOUT_MS));
+	if (TemplateEnquiryConfig.COMPRESSION_MIN_BYTES >= 0) {
+	    enquiry.encoding = TemplateContentEncoding.negotiate(acceptEncoding);
+	}
+
+	// paged iteration, all pages are built from the snapshot of the first page
+	if (limitParam != null || cursorParam != null) {
+	    enquiry.limit = getPageLimit(limitParam);
+	    if (cursorParam != null) {
+		enquiry.cursor = TemplatePageCursor.decode(cursorParam, query);
 	    }
+	    enquiry.nextPageUri = uriInfo.getRequestUriBuilder();
+	}
+	enquiry.snapshot = enquiry.cursor == null ? getSnapshot(query.getAppIdParam()) : getSnapshot(enquiry.cursor);
+	SchemaVersionCache schemaVersionCache = context.getSchemaVersionCache();
+	// read before building the rows, a schema change while building makes the result stale
+	enquiry.schemaGeneration = schemaVersionCache.getGeneration();
+
+	enquiry.syncToken = new TemplateSyncToken(context.getChangeLog().getEpoch(), enquiry.snapshot.getRevision(),
+		enquiry.schemaGeneration).encode();
+
+	// pages refer to the snapshot revision, whole lists only to the data of their applicationIds
+	enquiry.dataRevision = enquiry.limit == 0 ? enquiry.snapshot.getRevision(query)
+		: enquiry.snapshot.getRevision();
+
+	// conditional GET, answered without building the response, every content coding has its own tag
+	String tagKey = enquiry.limit == 0 ? query.toString() : query + "|" + enquiry.limit + "|" + cursorParam;
+	if (enquiry.encoding != null) {
+	    tagKey += "|" + enquiry.encoding;
+	}
+	long dataHash = enquiry.limit == 0 ? enquiry.snapshot.getDataHash(query) : enquiry.snapshot.getDataHash();
+	enquiry.eTag = TemplateEntityTag.of(dataHash, context.getRowJoin().getSchemaVersionsHash(query), tagKey);
+	enquiry.lastModified = TemplateEntityTag.lastModified(enquiry.snapshot,
+		schemaVersionCache.getGenerationChangedAt());
+	ResponseBuilder notModified = restRequest.evaluatePreconditions(enquiry.lastModified, enquiry.eTag);
+	if (notModified != null) {
+	    LOG.debug("Template list for query '{}' not modified", query);
+	    notModified.header(RESPONSE_HEADER_AccessContorlAllowOrigin, RESPONSE_HEADER_CORS);
+	    enquiry.response = notModified.header(RESPONSE_HEADER_VARY, VARY).build();
+	    return enquiry;
+	}
 
-	    return Response.ok().header(RESPONSE_HEADER_AccessContorlAllowOrigin, RESPONSE_HEADER_CORS)
-		    .header(RESPONSE_HEADER_ContentType, acceptHeader).entity(ret).build();
+	enquiry.serializer = RESPONSE_HEADER_SUCCESS_CBOR_v1.equals(query.getProfile()) ? CBOR_SERIALIZER
+		: getSerializer(query);
+	enquiry.streamed = enquiry.limit == 0 && isStreamed(query, enquiry.snapshot, enquiry.schemaGeneration);
+	if (enquiry.limit == 0 && !enquiry.streamed) {
+	    byte[] body = context.getResponseCache().get(query, enquiry.dataRevision, enquiry.schemaGeneration);
+	    if (body != null) {
+		LOG.debug("Serving cached template list for query '{}'", query);
+		enquiry.response = getEncodedResponse(enquiry, body, null);
+	    }
+	}
+	return enquiry;
+    }
+
+    /**
+     * Builds the response of a prepared page, runs on the enquiry executor.
+     * 
+     * @param enquiry
+     * @return template page or error response
+     */
+    private Response getResponse(Enquiry enquiry) {
+	try {
+	    TemplatePage page = getPage(enquiry.query, enquiry.snapshot, enquiry.cursor, enquiry.limit);
+	    return getEncodedResponse(enquiry, serialize(enquiry.serializer, enquiry.query, page.rows),
+		    page.nextCursor);
 	} catch (NtfRestException ntfEx) {
-	    LOG.error("Exception handled: {}", ntfEx.getMessage());
-	    LOG.trace("Exception stacktrace", ntfEx);
-	    return setErrorResponse(ntfEx.getErrorCode(), ntfEx.getMessage());
+	    return getErrorResponse(ntfEx);
+	} catch (RuntimeException e) {
+	    return getExceptionResponse(enquiry, e);
 	}
     }
 
+    /**
+     * Answers a prepared request for a streamed list, runs on the enquiry executor holding the
+     * permit of the concurrency limit. The permit is handed to the stream once the response is
+     * resumed, the rows are then joined on this thread while the container writes them, see
+     * {@link TemplateRowStream}.
+     */
+    private void answerStreamed(AsyncResponse asyncResponse, Enquiry enquiry, long startNanos) {
+	TemplateRowStream stream = new TemplateRowStream(context, enquiry.serializer, enquiry.query,
+		enquiry.snapshot, enquiry.encoding, enquiry.deadline);
+	boolean streaming = false;
+	try {
+	    Response response;
+	    try {
+		response = stream.start() ? getOkResponse(enquiry, stream, null, enquiry.encoding)
+			: setErrorResponse(NOT_FOUND_CODE,
+				getNotFoundMessage(enquiry.query.getAppIdParam(), enquiry.query.getCategory()));
+		streaming = response.getEntity() == stream;
+	    } catch (NtfRestException ntfEx) {
+		response = getErrorResponse(ntfEx);
+	    } catch (RuntimeException e) {
+		response = getExceptionResponse(enquiry, e);
+	    }
+	    streaming = resume(asyncResponse, response, startNanos) && streaming;
+	} finally {
+	    if (!streaming) {
+		stream.release();
+	    }
+	}
+	if (streaming) {
+	    stream.produce();
+	}
+    }
+
+    private static Response getExceptionResponse(Enquiry enquiry, Throwable e) {
+	LOG.error("Exception in getting the Template list for applicationId {}", enquiry.query.getAppIdParam(), e);
+	return setErrorResponse(EXCEPTION_CODE, "Exception in getting the Template list for applicationId :"
+		+ enquiry.query.getAppIdParam() + " - " + e.getMessage());
+    }
+
+    private Response getConcurrencyLimitResponse(TemplateQuery query) {
+	return setErrorResponse(RATE_LIMITED_CODE,
+		"Too many concurrent template requests for applicationId :" + query.getAppIdParam(),
+		context.getAdmissionControl().getExpensiveRetryAfterSeconds());
+    }
+
+    /**
+     * Answers a prepared request for a whole list. Identical concurrent requests share one build,
+     * including its error outcome: the first request builds the list on the enquiry executor, the
+     * others are resumed when the build completes and hold no thread meanwhile. Only the build takes
+     * a permit of the concurrency limit, the requests waiting for it do not.
+     */
+    private void answerFromBuild(final AsyncResponse asyncResponse, final Enquiry enquiry, final long startNanos) {
+	final TemplateAdmissionControl admission = context.getAdmissionControl();
+	final SingleFlight<String, byte[]> builds = context.getResponseBuilds();
+	final SingleFlight.Flight<String, byte[]> flight = builds
+		.join(enquiry.query + "|" + enquiry.dataRevision + "|" + enquiry.schemaGeneration);
+	flight.getResult().whenComplete(new BiConsumer<byte[], Throwable>() {
+	    @Override
+	    public void accept(byte[] body, Throwable failure) {
+		try {
+		    if (failure instanceof NtfRestException
+			    && RATE_LIMITED_CODE.equals(((NtfRestException) failure).getErrorCode())) {
+			// the build did not get a permit of the concurrency limit
+			resume(asyncResponse, getConcurrencyLimitResponse(enquiry.query), startNanos);
+		    } else if (failure instanceof NtfRestException) {
+			resume(asyncResponse, getErrorResponse((NtfRestException) failure), startNanos);
+		    } else if (failure != null) {
+			resume(asyncResponse, getExceptionResponse(enquiry, failure), startNanos);
+		    } else {
+			resume(asyncResponse, getEncodedResponse(enquiry, body, null), startNanos);
+		    }
+		} catch (RuntimeException e) {
+		    resume(asyncResponse, getExceptionResponse(enquiry, e), startNanos);
+		}
+	    }
+	});
+	if (!flight.isLeader()) {
+	    LOG.debug("Template request for query '{}' waits for the build of an identical request", enquiry.query);
+	    return;
+	}
+	if (!admission.tryAcquire(enquiry.query)) {
+	    LOG.debug("Template request for query '{}' rejected, too many concurrent queries", enquiry.query);
+	    builds.fail(flight, new NtfRestException(RATE_LIMITED_CODE, "Too many concurrent template requests"));
+	    return;
+	}
+	try {
+	    context.getExecutors().getRequestExecutor().execute(new Runnable() {
+		@Override
+		public void run() {
+		    try {
+			builds.complete(flight, buildResponseBody(enquiry));
+		    } catch (NtfRestException | RuntimeException e) {
+			builds.fail(flight, e);
+		    } catch (Error e) {
+			// the waiting requests are answered, the error still reaches the executor
+			builds.fail(flight, e);
+			throw e;
+		    } finally {
+			admission.release(enquiry.query);
+		    }
+		}
+	    });
+	} catch (RejectedExecutionException e) {
+	    admission.release(enquiry.query);
+	    LOG.error("Template request for query '{}' rejected, executor is saturated", enquiry.query);
+	    builds.fail(flight, new NtfRestException(OVERLOADED_CODE, "Too many concurrent template requests"));
+	}
+    }
+
+    /**
+     * @param body
+     *            - serialized template list, coded in the negotiated content coding unless it is
+     *            smaller than {@code compression.minBytes}
+     */
+    private Response getEncodedResponse(Enquiry enquiry, byte[] body, String nextCursor) {
+	if (enquiry.encoding == null || body.length < TemplateEnquiryConfig.COMPRESSION_MIN_BYTES) {
+	    return getOkResponse(enquiry, body, nextCursor, null);
+	}
+	// whole lists keep their coded variants in the response cache
+	byte[] encoded = enquiry.limit == 0
+		? context.getResponseCache().getEncoded(enquiry.query, body, enquiry.encoding)
+		: TemplateContentEncoding.encode(body, enquiry.encoding);
+	return getOkResponse(enquiry, encoded, nextCursor, enquiry.encoding);
+    }
+
+    /**
+     * @param contentEncoding
+     *            - content coding of the entity, null for identity
+     */
+    private Response getOkResponse(Enquiry enquiry, Object entity, String nextCursor, String contentEncoding) {
+	ResponseBuilder ok = Response.ok().header(RESPONSE_HEADER_AccessContorlAllowOrigin, RESPONSE_HEADER_CORS)
+		.header(RESPONSE_HEADER_ContentType, enquiry.contentType).header(RESPONSE_HEADER_VARY, VARY)
+		.header(RESPONSE_HEADER_SYNC_TOKEN, enquiry.syncToken).tag(enquiry.eTag)
+		.lastModified(enquiry.lastModified);
+	if (contentEncoding != null) {
+	    ok.header(RESPONSE_HEADER_CONTENT_ENCODING, contentEncoding);
+	}
+	if (nextCursor != null) {
+	    ok.header(RESPONSE_HEADER_NEXT_CURSOR, nextCursor).header(RESPONSE_HEADER_LINK,
+		    "<" + enquiry.nextPageUri.replaceQueryParam("cursor", nextCursor).build() + ">; rel=\"next\"");
+	}
+	return ok.entity(entity).build();
+    }
+
+    private static Response getErrorResponse(NtfRestException ntfEx) {
+	LOG.error("Exception handled: {}", ntfEx.getMessage());
+	LOG.trace("Exception stacktrace", ntfEx);
+	return setErrorResponse(ntfEx.getErrorCode(), ntfEx.getMessage());
+    }
+
+    /**
+     * @return serializer using the JSON writers of the runtime, they are resolved on first use
+     */
+    private TemplateJsonSerializer getSerializer(TemplateQuery query) throws NtfRestException {
+	TemplateJsonSerializer current = serializer;
+	if (current == null) {
+	    try {
+		current = new TemplateJsonSerializer(providers);
+	    } catch (IOException e) {
+		LOG.error("Exception in serializing the Template list for applicationId {}", query.getAppIdParam(), e);
+		throw new NtfRestException(EXCEPTION_CODE, "Exception in serializing the Template list for applicationId :"
+			+ query.getAppIdParam() + " - " + e.getMessage());
+	    }
+	    serializer = current;
+	}
+	return current;
+    }
+
     @OPTIONS
     public Response getOptions() {
 	return Response.ok().header("Access-Control-Allow-Origin", "*")
@@ -153,7 +535,7 @@ public class NtfTemplateRestExtNew {
 		.header("Access-Control-Allow-Headers", "Content-Type, Accept, X-Requested-With").build();
     }
 
-    private static String getSchemaVersion(String acceptString) {
+    static String getSchemaVersion(String acceptString) {
 	if (LOG.isDebugEnabled()) {
 	    LOG.debug("acceptString = {}", acceptString);
 	}
@@ -165,20 +547,210 @@ public class NtfTemplateRestExtNew {
 	return acceptString.substring(bIndex, eIndex + 5);
     }
 
+    /**
+     * Method to build the serialized template data of a query that is not in the response cache. The
+     * JSON is cached per query and only rebuilt when the template snapshot or the schema versions
+     * changed, runs for the leading request of identical concurrent requests.
+     * 
+     * @param enquiry
+     *            - prepared request
+     * @return UTF-8 JSON of the template list
+     * @throws NtfRestException
+     */
+    private byte[] buildResponseBody(Enquiry enquiry) throws NtfRestException {
+	TemplateQuery query = enquiry.query;
+	TemplateResponseCache responseCache = context.getResponseCache();
+	// a build that completed after the request looked up the cache left its body there
+	byte[] body = responseCache.get(query, enquiry.dataRevision, enquiry.schemaGeneration);
+	if (body != null) {
+	    return body;
+	}
+	if (TemplateEnquiryExecutors.isExpired(enquiry.deadline)) {
+	    throw new NtfRestException(TIMEOUT_CODE, "Template request for applicationId :" + query.getAppIdParam()
+		    + " not answered in time");
+	}
+	List<TemplateBase> rows = getTemplateData(enquiry.snapshot, VERSION_2, query.getAppIdParam(),
+		query.getCategory(), enquiry.deadline);
+	body = serialize(enquiry.serializer, query, rows);
+	responseCache.put(query, enquiry.dataRevision, enquiry.schemaGeneration, body);
+	return body;
+    }
+
+    private byte[] serialize(TemplateRowSerializer serializer, TemplateQuery query, List<TemplateBase> rows)
+	    throws NtfRestException {
+	long start = System.nanoTime();
+	try {
+	    byte[] body = serializer.serialize(rows);
+	    context.getMetrics().recordStage(TemplateEnquiryMetrics.STAGE_SERIALIZE, start);
+	    return body;
+	} catch (IOException e) {
+	    LOG.error("Exception in serializing the Template list for applicationId {}", query.getAppIdParam(), e);
+	    throw new NtfRestException(EXCEPTION_CODE, "Exception in serializing the Template list for applicationId :"
+		    + query.getAppIdParam() + " - " + e.getMessage());
+	}
+    }
+
+    /**
+     * @param limitParam
+     *            - requested page size, null for the default
+     * @return page size
+     * @throws NtfRestException
+     *             if the limit is not a positive number
+     */
+    private static int getPageLimit(String limitParam) throws NtfRestException {
+	if (limitParam == null) {
+	    return TemplateEnquiryConfig.PAGING_MAX_LIMIT;
+	}
+	try {
+	    int limit = Integer.parseInt(limitParam);
+	    if (limit > 0) {
+		return Math.min(limit, TemplateEnquiryConfig.PAGING_MAX_LIMIT);
+	    }
+	} catch (NumberFormatException e) {
+	    // reported below
+	}
+	throw new NtfRestException(INVALID_LIMIT, "limit parameter " + limitParam + " is not a positive number");
+    }
+
+    /**
+     * Method to return one page of the template data of a query. The templates are taken from the
+     * snapshot in (appId, templateId) group order, so a cursor position stays valid for the snapshot
+     * revision it names.
+     * 
+     * @param query
+     *            - normalized query
+     * @param snapshot
+     *            - snapshot of the iteration
+     * @param cursor
+     *            - position after the previous page, null for the first page
+     * @param limit
+     *            - maximum number of rows
+     * @return rows of the page and the cursor of the next page
+     * @throws NtfRestException
+     */
+    private TemplatePage getPage(TemplateQuery query, TemplateDataSnapshot snapshot, TemplatePageCursor cursor,
+	    int limit) throws NtfRestException {
+	List<List<Template>> groups = snapshot.getTemplateGroups();
+	Set<String> appIds = query.isAllApps() ? null : new HashSet<>(query.getAppIds());
+	int groupIndex = cursor == null ? 0 : cursor.getGroupIndex();
+	int rowOffset = cursor == null ? 0 : cursor.getRowOffset();
+
+	ArrayList<TemplateBase> rows = new ArrayList<>(Math.min(limit, 256));
+	TemplatePageCursor next = null;
+	long joinNanos = 0;
+	try {
+	    for (; groupIndex < groups.size() && next == null; groupIndex++, rowOffset = 0) {
+		List<Template> group = groups.get(groupIndex);
+		if (appIds != null && !appIds.contains(NtfUtils.safeToString(group.get(0).getAppId()))
+			|| !hasCategory(snapshot, group, query.getCategory())) {
+		    continue;
+		}
+		long start = System.nanoTime();
+		List<TemplateBase> groupRows = getRowsFromTemplate(snapshot, group, query.getCategory(), VERSION_2);
+		joinNanos += System.nanoTime() - start;
+		int end = Math.min(groupRows.size(), rowOffset + limit - rows.size());
+		if (rowOffset < end) {
+		    rows.addAll(groupRows.subList(rowOffset, end));
+		}
+		if (rows.size() == limit) {
+		    if (end < groupRows.size()) {
+			next = new TemplatePageCursor(snapshot.getRevision(), groupIndex, end);
+		    } else if (groupIndex + 1 < groups.size()) {
+			next = new TemplatePageCursor(snapshot.getRevision(), groupIndex + 1, 0);
+		    }
+		}
+	    }
+	} catch (Exception e) {
+	    LOG.error("Exception in getting the Template list for applicationId {}", query.getAppIdParam(), e);
+	    throw new NtfRestException(EXCEPTION_CODE, "Exception in getting the Template list for applicationId :"
+		    + query.getAppIdParam() + " - " + e.getMessage());
+	}
+	context.getRowJoin().recordJoin(joinNanos, rows.size());
+	if (cursor == null && rows.isEmpty()) {
+	    throw new NtfRestException(NOT_FOUND_CODE, getNotFoundMessage(query.getAppIdParam(), query.getCategory()));
+	}
+	LOG.info("Number of template records = {} in page of snapshot revision {} for category = {}, appId = {}",
+		rows.size(), snapshot.getRevision(), query.getCategory(), query.getAppIdParam());
+	return new TemplatePage(rows, next == null ? null : next.encode(query));
+    }
+
+    /**
+     * Large wildcard queries are streamed instead of being built and cached as a whole, unless the
+     * response is already cached.
+     * 
+     * @param query
+     * @param snapshot
+     * @param schemaGeneration
+     * @return true if the response is to be streamed
+     */
+    private boolean isStreamed(TemplateQuery query, TemplateDataSnapshot snapshot, long schemaGeneration) {
+	return query.isAllApps() && TemplateEnquiryConfig.STREAMING_MIN_TEMPLATES >= 0
+		&& snapshot.getTemplateCount() >= TemplateEnquiryConfig.STREAMING_MIN_TEMPLATES
+		&& !context.getResponseCache().contains(query, snapshot.getRevision(query), schemaGeneration);
+    }
+
+    /**
+     * @param group
+     *            - templates of one (appId, templateId)
+     * @param category
+     *            - category to filter on, null for all categories
+     * @return true if the group has a notification of the category
+     */
+    private static boolean hasCategory(TemplateDataSnapshot snapshot, List<Template> group, String category) {
+	return category == null || !snapshot.getNotificationIndex().lookup(group.get(0), category).isEmpty();
+    }
+
+    /**
+     * @param cursor
+     *            - cursor of a paged iteration
+     * @return snapshot of the iteration
+     * @throws NtfRestException
+     *             if the snapshot is no longer retained
+     */
+    private TemplateDataSnapshot getSnapshot(TemplatePageCursor cursor) throws NtfRestException {
+	TemplateDataSnapshot snapshot = context.getSnapshotCache().get(cursor.getRevision());
+	if (snapshot == null) {
+	    throw new NtfRestException(INVALID_CURSOR,
+		    "cursor refers to expired template revision " + cursor.getRevision() + ", restart the iteration");
+	}
+	return snapshot;
+    }
+
+    /**
+     * @param appIds
+     *            - applicationIds of the request, for the error message
+     * @return current template snapshot
+     * @throws NtfRestException
+     *             if the snapshot can not be read
+     */
+    private TemplateDataSnapshot getSnapshot(String appIds) throws NtfRestException {
+	try {
+	    return context.getSnapshotCache().get();
+	} catch (Exception e) {
+	    LOG.error("Exception in getting the Template list for applicationId {}", appIds, e);
+	    throw new NtfRestException(EXCEPTION_CODE,
+		    "Exception in getting the Template list for applicationId :" + appIds + " - " + e.getMessage());
+	}
+    }
+
     /**
      * Method to return the list of template data
      * 
+     * @param snapshot
+     *            - templates and notifications to use
      * @param versionParam
      *            - V2 version of the template details to be returned in the response
      * @param appId
      *            - TPG id or comma separated list of TPG's
      * @param categoryParam
      *            - category to filter on
+     * @param deadline
+     *            - System.nanoTime() the request has to be answered by
      * @return list of template data for the given TPG(s) and category
      * @throws IOException
      */
-    private List<TemplateBase> getTemplateData(String versionParam, String appIds, String categoryParam)
-	    throws NtfRestException {
+    private List<TemplateBase> getTemplateData(TemplateDataSnapshot snapshot, String versionParam, String appIds,
+	    String categoryParam, long deadline) throws NtfRestException {
 
 	LOG.info("getTemplateData invoked");
 	// Split the id - since it may be comma separated
@@ -191,198 +763,103 @@ public class NtfTemplateRestExtNew {
 	    if (appIdArr.length > 0) {
 		ArrayList<String> appIdList = new ArrayList<>();
 		appIdList.addAll(Arrays.asList(appIdArr));
-		// force reload of template cache
-		List<Template> tempList = daeIntf.getAllTemplate(ReadFrom.SERVER);
+		List<Template> tempList;
 
 		if (appIdList.contains("*")) {
-		    LOG.debug("Getting all Template");
+		    LOG.debug("Getting all Template of snapshot revision {}", snapshot.getRevision());
+		    // only the templates of the category are joined
+		    tempList = categoryParam == null ? snapshot.getTemplates()
+			    : snapshot.getCategoryIndex().getTemplates(categoryParam);
 		} else {
-		    tempList = new ArrayList<>();
-		    for (String appId : appIdArr) {
-			List<Template> templateForApp = daeIntf.getTemplateForApp(appId);
-			if (templateForApp != null && templateForApp.size() > 0) {
-			    tempList.addAll(templateForApp);
-			}
-		    }
+		    // from the snapshot, so the rows match the entity tag and the pages of the applicationIds
+		    tempList = filterCategory(snapshot, snapshot.getTemplatesOfApps(appIdList), categoryParam);
 		}
-		if (tempList != null && tempList.size() > 0) {
-		    retRows = getRowsFromTemplate(tempList, categoryParam, versionParam);
+		if (tempList.size() > 0) {
+		    prefetchSchemaVersions(snapshot, tempList, categoryParam, deadline);
+		    LOG.debug("Joining {} templates with {} notifications for category = {}", tempList.size(),
+			    snapshot.getNotificationIndex().size(), categoryParam);
+		    long start = System.nanoTime();
+		    retRows = getRowsFromTemplate(snapshot, tempList, categoryParam, versionParam);
+		    context.getRowJoin().recordJoin(System.nanoTime() - start, retRows.size());
 		}
 		LOG.info("Number of template records = {} for category = {}, version = {}, appId = {}",
 			(retRows == null ? 0 : retRows.size()), categoryParam, versionParam, appIds);
 	    }
 
+	} catch (TimeoutException e) {
+	    LOG.error("Timeout in getting the Template list for applicationId {}", appIds);
+	    throw new NtfRestException(TIMEOUT_CODE, "Template request for applicationId :" + appIds
+		    + " not answered in time");
 	} catch (Exception e) {
 	    LOG.error("Exception in getting the Template list for applicationId {}", appIds, e);
 	    throw new NtfRestException(EXCEPTION_CODE,
 		    "Exception in getting the Template list for applicationId :" + appIds + " - " + e.getMessage());
 	}
 	if (retRows == null || retRows.size() == 0) {
-	    String detailMsg;
-	    if (categoryParam == null || categoryParam.length() == 0) {
-		detailMsg = "applicationId:" + appIds + " not found.";
-	    } else {
-		detailMsg = "applicationId:" + appIds + " and category: " + categoryParam + " not found.";
-	    }
-	    throw new NtfRestException(NOT_FOUND_CODE, detailMsg);
+	    throw new NtfRestException(NOT_FOUND_CODE, getNotFoundMessage(appIds, categoryParam));
 	}
 	return retRows;
     }
 
-    private ArrayList<TemplateBase> getRowsFromTemplate(List<Template> templateList, String category, String version)
-	    throws Exception {
-
-	LOG.info("getRowsFromTemplate invoked with category = {}, verison = {} for template size = {}", category,
-		version, templateList.size());
-
-	ArrayList<TemplateBase> retList = new ArrayList<>();
-
-	List<Notification> allNotification = daeIntf.getAllNotification(ReadFrom.SERVER);
-	if (allNotification == null) {
-	    // no active notification so no template/notification combinations
-	    // to return
-	    return retList;
+    /**
+     * @param categoryParam
+     *            - category to filter on, null for all categories
+     * @return the templates with a notification of the category
+     */
+    private static List<Template> filterCategory(TemplateDataSnapshot snapshot, List<Template> templates,
+	    String categoryParam) {
+	if (categoryParam == null) {
+	    return templates;
 	}
-	LOG.info("Found number of Notifications = {}", allNotification.size());
-	for (Template template : templateList) {
-	    for (Notification notification : allNotification) {
-		if (matches(template, notification, category)) {
-		    TemplateBase row = createEntries(version, template, notification);
-		    if (row != null) {
-			if (!retList.contains(row)) {
-			    retList.add(row);
-			} else {
-			    appendSchemaVersionList(retList, row);
-			}
-		    }
-		}
+	TemplateNotificationIndex index = snapshot.getNotificationIndex();
+	List<Template> filtered = new ArrayList<>();
+	for (Template template : templates) {
+	    if (!index.lookup(template, categoryParam).isEmpty()) {
+		filtered.add(template);
 	    }
 	}
-	return retList;
-
+	return filtered;
     }
 
     /**
-     * Appending schema version list of the row with template present in retList
-     * 
-     * @param retList
-     * @param row
+     * @see TemplateRowJoin#prefetchSchemaVersions(TemplateDataSnapshot, List, String, long)
      */
-    private void appendSchemaVersionList(ArrayList<TemplateBase> retList, TemplateBase row) {
-	if (row instanceof Template_v2) {
-	    List<String> rowSchemaVersions = ((Template_v2) row).getSchemaVersions();
-	    for (TemplateBase template : retList) {
-		// If row matches with template present in list
-		if (template.equals(row)) {
-		    Template_v2 template_v2 = (Template_v2) template;
-		    List<String> schemaVersions = template_v2.getSchemaVersions();
-		    // Merging schemaVersions & rowSchemaVersionsin descending order
-		    schemaVersions.removeAll(rowSchemaVersions);
-		    schemaVersions.addAll(rowSchemaVersions);
-		    Collections.sort(schemaVersions, new Comparator<String>() {
-			@Override
-			public int compare(String left, String right) {
-			    String leftMajorV = left.split("\\.")[0];
-			    String rightMajorV = right.split("\\.")[0];
-			    return rightMajorV.compareTo(leftMajorV);
-			}
-		    });
-
-		}
-	    }
-	}
+    void prefetchSchemaVersions(TemplateDataSnapshot snapshot, List<Template> templates, String category,
+	    long deadline) throws TimeoutException {
+	context.getRowJoin().prefetchSchemaVersions(snapshot, templates, category, deadline);
     }
 
-    private TemplateBase createEntries(String version, Template template, Notification notification) {
-	switch (version) {
-	case VERSION_2:
-	    String appIdStr = NtfUtils.safeToString(template.getAppId());
-	    String categoryStr = NtfUtils.safeToString(notification.getCategory());
-
-	    Template_v2 row = new Template_v2();
-	    row.setId(NtfUtils.safeToString(template.getTemplateId()));
-	    row.setApplicationId(appIdStr);
-	    row.setName(NtfUtils.safeToString(template.getTemplateName()));
-	    row.setCategory(categoryStr);
-	    row.setDescription(NtfUtils.safeToString(template.getDescription()));
-
-	    setTemplateSchemaVersions(appIdStr, categoryStr, NtfUtils.safeToString(notification.getSchemaVersion()),
-		    row);
-	    if(row.getSchemaVersions() == null || row.getSchemaVersions().size() == 0){
-		return null;
-	    }
-	    return row;
-	default:
-	    LOG.error("requested unsupported version {}", version);
+    private static String getNotFoundMessage(String appIds, String categoryParam) {
+	if (categoryParam == null || categoryParam.length() == 0) {
+	    return "applicationId:" + appIds + " not found.";
 	}
-	return null;
+	return "applicationId:" + appIds + " and category: " + categoryParam + " not found.";
     }
 
-    private static boolean matches(Template template, Notification notification, String category) {
-	LOG.debug("matching template {} to notification {} and  category {}", template, notification, category);
-	return (Objects.equals(template.getTemplateId(), notification.getTemplateId())
-		&& Objects.equals(template.getAppId(), notification.getAppId())
-		&& (category == null || Objects.equals(category, NtfUtils.safeToString(notification.getCategory()))));
+    /**
+     * @see TemplateRowJoin#getRowsFromTemplate(TemplateDataSnapshot, List, String, String)
+     */
+    ArrayList<TemplateBase> getRowsFromTemplate(TemplateDataSnapshot snapshot, List<Template> templateList,
+	    String category, String version) {
+	return context.getRowJoin().getRowsFromTemplate(snapshot, templateList, category, version);
     }
 
     /**
-     * Setting active schema version and major schema version list to Template from Zookeeper schema
-     * service<br>
-     * TODO determine if required
-     * 
-     * /**
-     * 
-     * @param appId
-     * @param category
-     * @param defaultSchemaVersion
-     * @param c
-     *            template_v2
-     * @return
+     * Sets the response object for an error scenario
      */
-    protected void setTemplateSchemaVersions(String appId, String category, String defaultSchemaVersion,
-	    Template_v2 row) {
-	List<String> versionList = new ArrayList<>();
-	if (defaultSchemaVersion == null || appId == null || category == null) {
-	    return;
-	}
-	if (!NtfUtils.isDefaultVersion(defaultSchemaVersion)) {
-	    versionList.add(defaultSchemaVersion);
-	}
-	// If default version is type 'a.X.X' or 'a.b.X' or 'default'
-	String schemaName = appId + "_" + category;
-	if (schemaService == null) {
-	    schemaService = NotifSchemaLookup.getSchemaService();
-	}
-	if (schemaService != null) {
-	    try {
-		String activeVersionForSchema = schemaService.getActiveVersionForSchema(SCHEMA_NAMESPACE, schemaName);
-		row.setSchemaVersion(activeVersionForSchema);
-
-		// if defaultSchemaVersion is not available in versionList, then get from shcema
-		// service
-		if (versionList.isEmpty()) {
-		    List<String> list = schemaService.getVersionsForSchema(SCHEMA_NAMESPACE, schemaName, true, true);
-		    if (list != null && list.size() > 0) {
-			versionList.addAll(list);
-		    }
-		    versionList = NtfUtils.filterAllowedVersions(versionList, defaultSchemaVersion);
-		    versionList = filterMajorVersions(versionList, defaultSchemaVersion);
-		}
-	    } catch (Exception e) {
-	    }
-
-	} else {
-	    LOG.error("Schema Service is Not Available.");
-	}
-
-	row.setSchemaVersions(versionList);
+    static Response setErrorResponse(String errCode, String message) {
+	return getErrorResponseBuilder(errCode, message).build();
     }
 
     /**
-     * Sets the response object for an error scenario
+     * Sets the response object for an error scenario the client may retry after some time
      */
-    private static Response setErrorResponse(String errCode, String message) {
+    static Response setErrorResponse(String errCode, String message, long retryAfterSeconds) {
+	return getErrorResponseBuilder(errCode, message).header(RESPONSE_HEADER_RETRY_AFTER, retryAfterSeconds)
+		.build();
+    }
 
+    private static ResponseBuilder getErrorResponseBuilder(String errCode, String message) {
 	ResponseBuilder r = Response.noContent().header(RESPONSE_HEADER_AccessContorlAllowOrigin, RESPONSE_HEADER_CORS)
 		.header(RESPONSE_HEADER_ContentType, RESPONSE_HEADER_ERROR).header(RESPONSE_HEADER_ERROR_CODE, errCode)
 		.header(RESPONSE_HEADER_ERROR_MESSAGE, message);
@@ -392,35 +869,94 @@ public class NtfTemplateRestExtNew {
 	    break;
 	case INVALID_TEMPLATE_VERSION:
 	case INVALID_CATEGORY:
+	case INVALID_LIMIT:
+	case INVALID_CURSOR:
+	case INVALID_SYNC_TOKEN:
 	    r.status(Status.BAD_REQUEST);
 	    break;
+	case RESYNC_REQUIRED:
+	    r.status(Status.GONE);
+	    break;
+	case TIMEOUT_CODE:
+	case OVERLOADED_CODE:
+	    r.status(Status.SERVICE_UNAVAILABLE);
+	    break;
+	case RATE_LIMITED_CODE:
+	    r.status(STATUS_TOO_MANY_REQUESTS);
+	    break;
 	case EXCEPTION_CODE:
 	default:
 	    r.status(Status.INTERNAL_SERVER_ERROR);
 	    break;
 	}
-	return r.build();
+	return r;
     }
 
-    private static List<String> filterMajorVersions(List<String> list, String defaultSchemaVersion) {
-	List<String> output = new ArrayList<>();
-	int n = list.size();
-	// as the first version will be latest for the major version
-	if (n > 0) {
-	    output.add(list.get(0));
-	}
-
+    /**
+     * Filters the allowed versions of a schema to the versions offered in a template row: the latest
+     * version and, for the default schema version, the latest version of every other major version.
+     * 
+     * @param list
+     *            - allowed versions
+     * @param defaultSchemaVersion
+     * @return the versions, latest first
+     */
+    static List<String> filterMajorVersions(List<String> list, String defaultSchemaVersion) {
+	SchemaVersionSet versions = SchemaVersionSet.of(list);
 	if (NtfUtils.DEFAULT_STR.equalsIgnoreCase(defaultSchemaVersion)) {
-	    for (int i = 0; i < n - 1; i++) {
-		int left = Integer.parseInt(list.get(i).split("\\.")[0]);
-		int right = Integer.parseInt(list.get(i + 1).split("\\.")[0]);
-		// if consecutive versions do not match
-		if (left != right) {
-		    output.add(list.get(i + 1));
-		}
-	    }
+	    return versions.toLatestPerMajor();
+	}
+	List<String> output = new ArrayList<>(1);
+	if (versions.size() > 0) {
+	    output.add(versions.get(0).toString());
 	}
 	return output;
     }
 
+    /**
+     * Rows of one page and the cursor of the next page, null on the last page
+     */
+    private static final class TemplatePage {
+	final List<TemplateBase> rows;
+	final String nextCursor;
+
+	TemplatePage(List<TemplateBase> rows, String nextCursor) {
+	    this.rows = rows;
+	    this.nextCursor = nextCursor;
+	}
+    }
+
+    /**
+     * State of one template request, prepared on the request thread and completed on the enquiry
+     * executor
+     */
+    private static final class Enquiry {
+	final String contentType;
+	final TemplateQuery query;
+	final long deadline;
+	int limit;
+	TemplatePageCursor cursor;
+	UriBuilder nextPageUri;
+	TemplateDataSnapshot snapshot;
+	// revision of the data the response depends on
+	long dataRevision;
+	long schemaGeneration;
+	// token for the changes since this response
+	String syncToken;
+	EntityTag eTag;
+	Date lastModified;
+	TemplateRowSerializer serializer;
+	// negotiated content coding, null for identity
+	String encoding;
+	boolean streamed;
+	// set if the request is answered on the request thread
+	Response response;
+
+	Enquiry(String contentType, TemplateQuery query, long deadline) {
+	    this.contentType = contentType;
+	    this.query = query;
+	    this.deadline = deadline;
+	}
+    }
+
 }
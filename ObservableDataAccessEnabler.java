@@ -0,0 +1,22 @@
+package com.ericsson.ntf.ext.webservices;
+
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+
+/**
+ * DataAccessEnablerInterface that reports changes of its template and notification records. The
+ * template resources apply the changes to their snapshot of the data instead of reading all data
+ * again, a full reload is then only done as a periodic consistency check.
+ */
+public interface ObservableDataAccessEnabler extends DataAccessEnablerInterface {
+
+    /**
+     * @param listener
+     *            - called for every change, must not be blocked by the caller
+     */
+    void addTemplateChangeListener(TemplateChangeListener listener);
+
+    /**
+     * @param listener
+     */
+    void removeTemplateChangeListener(TemplateChangeListener listener);
+}
@@ -0,0 +1,116 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable map that is derived from another one by changing a few entries. The entries are held
+ * in a base map shared by all derived maps and an overlay with the entries changed against the base,
+ * so deriving a map costs in proportion to the overlay, not to the map. Once the overlay has more
+ * entries than the square root of the base it is folded into a new base, which spreads the cost of
+ * folding over the changes that made the overlay grow.<br>
+ * Iteration order is the order of the base, changed entries keep their position and new entries
+ * follow in the order they were added.
+ *
+ * @param <K>
+ * @param <V>
+ *            - values, null is not a value
+ */
+final class OverlayMap<K, V> {
+
+    private static final int MIN_OVERLAY = 64;
+
+    private final Map<K, V> base;
+    // changed entries, a null value marks a removed entry
+    private final Map<K, V> overlay;
+    private final int size;
+
+    private OverlayMap(Map<K, V> base, Map<K, V> overlay, int size) {
+	this.base = base;
+	this.overlay = overlay;
+	this.size = size;
+    }
+
+    /**
+     * @param entries
+     *            - entries in iteration order, must not be modified afterwards
+     * @return map of the entries
+     */
+    static <K, V> OverlayMap<K, V> of(Map<K, V> entries) {
+	return new OverlayMap<>(entries, Collections.<K, V> emptyMap(), entries.size());
+    }
+
+    /**
+     * @param key
+     * @return the value of the key or null
+     */
+    V get(Object key) {
+	V value = overlay.get(key);
+	if (value != null || overlay.containsKey(key)) {
+	    return value;
+	}
+	return base.get(key);
+    }
+
+    int size() {
+	return size;
+    }
+
+    /**
+     * Returns the map with some entries changed.
+     *
+     * @param changes
+     *            - new values per key, a null value removes the key
+     * @return the changed map
+     */
+    OverlayMap<K, V> with(Map<K, V> changes) {
+	if (changes.isEmpty()) {
+	    return this;
+	}
+	int newSize = size;
+	Map<K, V> newOverlay = new LinkedHashMap<>(overlay);
+	for (Map.Entry<K, V> change : changes.entrySet()) {
+	    boolean present = get(change.getKey()) != null;
+	    if (change.getValue() == null) {
+		if (present) {
+		    newSize--;
+		}
+		if (base.containsKey(change.getKey())) {
+		    newOverlay.put(change.getKey(), null);
+		} else {
+		    newOverlay.remove(change.getKey());
+		}
+	    } else {
+		if (!present) {
+		    newSize++;
+		}
+		newOverlay.put(change.getKey(), change.getValue());
+	    }
+	}
+	if (newOverlay.size() > Math.max(MIN_OVERLAY, (int) Math.sqrt(base.size()))) {
+	    return of(fold(base, newOverlay));
+	}
+	return new OverlayMap<>(base, Collections.unmodifiableMap(newOverlay), newSize);
+    }
+
+    /**
+     * @return all entries in iteration order, built on every call
+     */
+    Map<K, V> toMap() {
+	return overlay.isEmpty() ? Collections.unmodifiableMap(base) : fold(base, overlay);
+    }
+
+    private static <K, V> Map<K, V> fold(Map<K, V> base, Map<K, V> overlay) {
+	Map<K, V> map = new LinkedHashMap<>(base);
+	for (Map.Entry<K, V> entry : overlay.entrySet()) {
+	    if (entry.getValue() == null) {
+		map.remove(entry.getKey());
+	    } else {
+		// an existing key keeps its position
+		map.put(entry.getKey(), entry.getValue());
+	    }
+	}
+	return Collections.unmodifiableMap(map);
+    }
+}
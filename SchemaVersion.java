@@ -0,0 +1,119 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Schema version of the form major.minor.patch, parsed once. Versions are ordered numerically, so
+ * that "10.0.0" is later than "9.0.0". A part that is not a number (e.g. "X") is ordered before all
+ * numbers, versions with equal parts are ordered by their text.<br>
+ * Instances are shared, {@link #parse(String)} returns the same instance for the same text.
+ */
+final class SchemaVersion implements Comparable<SchemaVersion> {
+
+    // number of distinct versions kept by parse(), the set of versions in use is small
+    private static final int MAX_PARSED = 4096;
+    private static final ConcurrentMap<String, SchemaVersion> PARSED = new ConcurrentHashMap<>();
+
+    private static final int NOT_A_NUMBER = -1;
+
+    private final String text;
+    private final int major;
+    private final int minor;
+    private final int patch;
+
+    private SchemaVersion(String text) {
+	this.text = text;
+	int dot1 = text.indexOf('.');
+	int dot2 = dot1 < 0 ? -1 : text.indexOf('.', dot1 + 1);
+	this.major = parsePart(text, 0, dot1 < 0 ? text.length() : dot1);
+	this.minor = dot1 < 0 ? NOT_A_NUMBER : parsePart(text, dot1 + 1, dot2 < 0 ? text.length() : dot2);
+	this.patch = dot2 < 0 ? NOT_A_NUMBER : parsePart(text, dot2 + 1, text.length());
+    }
+
+    /**
+     * @param text
+     *            - version text
+     * @return the parsed version
+     */
+    static SchemaVersion parse(String text) {
+	SchemaVersion version = PARSED.get(text);
+	if (version == null) {
+	    version = new SchemaVersion(text);
+	    if (PARSED.size() >= MAX_PARSED) {
+		PARSED.clear();
+	    }
+	    SchemaVersion previous = PARSED.putIfAbsent(text, version);
+	    if (previous != null) {
+		version = previous;
+	    }
+	}
+	return version;
+    }
+
+    // digits only, without sign, else NOT_A_NUMBER
+    private static int parsePart(String text, int from, int to) {
+	if (from >= to || to - from > 9) {
+	    return NOT_A_NUMBER;
+	}
+	int value = 0;
+	for (int i = from; i < to; i++) {
+	    char c = text.charAt(i);
+	    if (c < '0' || c > '9') {
+		return NOT_A_NUMBER;
+	    }
+	    value = value * 10 + (c - '0');
+	}
+	return value;
+    }
+
+    /**
+     * @return major version, -1 if it is not a number
+     */
+    int getMajor() {
+	return major;
+    }
+
+    /**
+     * @param other
+     * @return true if both versions have the same major version
+     */
+    boolean isSameMajor(SchemaVersion other) {
+	return major == other.major && (major != NOT_A_NUMBER || majorText().equals(other.majorText()));
+    }
+
+    private String majorText() {
+	int dot = text.indexOf('.');
+	return dot < 0 ? text : text.substring(0, dot);
+    }
+
+    @Override
+    public int compareTo(SchemaVersion other) {
+	int c = Integer.compare(major, other.major);
+	if (c == 0) {
+	    c = Integer.compare(minor, other.minor);
+	    if (c == 0) {
+		c = Integer.compare(patch, other.patch);
+		if (c == 0) {
+		    c = text.compareTo(other.text);
+		}
+	    }
+	}
+	return c;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	return obj instanceof SchemaVersion && text.equals(((SchemaVersion) obj).text);
+    }
+
+    @Override
+    public int hashCode() {
+	return text.hashCode();
+    }
+
+    @Override
+    public String toString() {
+	return text;
+    }
+}
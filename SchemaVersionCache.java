@@ -0,0 +1,492 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.ntf.common.util.NtfUtils;
+
+/**
+ * Cache of the schema versions per (namespace, schemaName). An entry holds the active version and
+ * the version list of the schema plus the major version lists already filtered for a default
+ * schema version.<br>
+ * An entry older than {@code refreshAfterMs} is still served while it is reloaded in the
+ * background, an entry older than {@code expireAfterMs} is reloaded by the caller. The cache holds
+ * at most {@code maxSize} entries, the least recently used entry is evicted first.<br>
+ * The generation is incremented whenever the versions of a schema change, so results built from the
+ * cache can be tagged with the generation they were built from. The versions last served are kept
+ * per schema, also after the entry was evicted, so loading a schema again only moves the generation
+ * if its versions differ. A schema that could not be read counts as changed once it is read.<br>
+ * If reloading an expired entry fails, its last known versions are served instead and kept for
+ * another {@code expireAfterMs - refreshAfterMs}, with refreshes in the background. Every fallback is
+ * counted and logged.
+ */
+class SchemaVersionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SchemaVersionCache.class);
+
+    // reasons of a fallback to the last known versions besides those of GuardedSchemaVersionSource
+    static final String FALLBACK_ERROR = "error";
+    static final String FALLBACK_UNAVAILABLE = "unavailable";
+
+    private final SchemaVersionSource source;
+    private final TemplateEnquiryMetrics metrics;
+    private final long refreshAfterMs;
+    private final long expireAfterMs;
+    private final int maxSize;
+    private final ConcurrentMap<Key, CachedEntry> entries = new ConcurrentHashMap<>();
+    private final ExecutorService refresher;
+    private final AtomicLong generation = new AtomicLong();
+    // versions last served per schema, one small entry per schema ever read
+    private final ConcurrentMap<Key, KnownVersions> known = new ConcurrentHashMap<>();
+    private volatile long generationChangedAt;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    SchemaVersionCache(SchemaVersionSource source, TemplateEnquiryMetrics metrics, long refreshAfterMs,
+	    long expireAfterMs, int maxSize) {
+	this.source = source;
+	this.metrics = metrics;
+	this.refreshAfterMs = refreshAfterMs;
+	this.expireAfterMs = Math.max(expireAfterMs, refreshAfterMs);
+	this.maxSize = maxSize;
+	this.refresher = Executors
+		.newSingleThreadExecutor(TemplateEnquiryExecutors.daemonThreads("ntf-schema-version-refresh"));
+    }
+
+    /**
+     * Returns the schema versions of a schema.
+     *
+     * @param namespace
+     * @param schemaName
+     * @return the versions or null if the schema service is not available
+     * @throws Exception
+     *             if the active version can not be read
+     */
+    Entry get(String namespace, String schemaName) throws Exception {
+	Key key = new Key(namespace, schemaName);
+	long now = System.currentTimeMillis();
+	CachedEntry cached = entries.get(key);
+	if (cached != null && now - cached.loadedAt < expireAfterMs) {
+	    hits.increment();
+	    cached.lastAccess = now;
+	    if (now - cached.loadedAt >= refreshAfterMs) {
+		scheduleRefresh(key, cached);
+	    }
+	    return cached.entry;
+	}
+	misses.increment();
+	if (cached == null) {
+	    // an evicted schema falls back to the versions last served as well
+	    cached = getLastKnown(key);
+	}
+	if (!source.isAvailable()) {
+	    if (cached == null) {
+		markMissing(key);
+		return null;
+	    }
+	    return fallback(key, cached, FALLBACK_UNAVAILABLE, now);
+	}
+	Entry entry;
+	try {
+	    entry = load(key);
+	} catch (Exception e) {
+	    if (cached == null) {
+		markMissing(key);
+		throw e;
+	    }
+	    return fallback(key, cached, getReason(e), now);
+	}
+	if (!entry.hasVersions()) {
+	    if (cached != null) {
+		return fallback(key, cached, FALLBACK_ERROR, now);
+	    }
+	    markMissing(key);
+	}
+	put(key, entry, now);
+	return entry;
+    }
+
+    /**
+     * Serves the last known versions of a schema that could not be reloaded. The entry is kept as if
+     * it was loaded {@code refreshAfterMs} ago, so it is refreshed in the background from now on.
+     */
+    private Entry fallback(Key key, CachedEntry cached, String reason, long now) {
+	fallbacks.increment();
+	metrics.countSchemaFallback(reason);
+	LOG.warn("Versions of schema {} could not be loaded ({}), serving the last known versions", key.schemaName,
+		reason);
+	CachedEntry kept = new CachedEntry(cached.entry, now - refreshAfterMs);
+	kept.lastAccess = now;
+	if (!entries.replace(key, cached, kept)) {
+	    // the entry was evicted, unless another caller loaded it meanwhile
+	    entries.putIfAbsent(key, kept);
+	}
+	return cached.entry;
+    }
+
+    private CachedEntry getLastKnown(Key key) {
+	KnownVersions versions = known.get(key);
+	return versions == null || versions.entry == MISSING ? null : new CachedEntry(versions.entry, 0);
+    }
+
+    private static String getReason(Exception e) {
+	return e instanceof GuardedSchemaVersionSource.UnavailableException
+		? ((GuardedSchemaVersionSource.UnavailableException) e).getReason()
+		: FALLBACK_ERROR;
+    }
+
+    /**
+     * @param namespace
+     * @param schemaName
+     * @return true if the versions of the schema are cached and not expired
+     */
+    boolean isCached(String namespace, String schemaName) {
+	CachedEntry cached = entries.get(new Key(namespace, schemaName));
+	return cached != null && System.currentTimeMillis() - cached.loadedAt < expireAfterMs;
+    }
+
+    private Entry load(Key key) throws Exception {
+	long start = System.nanoTime();
+	try {
+	    return loadFromSource(key);
+	} finally {
+	    metrics.countSchemaLookup();
+	    metrics.recordStage(TemplateEnquiryMetrics.STAGE_SCHEMA_LOOKUP, start);
+	}
+    }
+
+    private Entry loadFromSource(Key key) throws Exception {
+	String activeVersion;
+	try {
+	    activeVersion = source.getActiveVersion(key.namespace, key.schemaName);
+	} catch (Exception e) {
+	    loadFailures.increment();
+	    throw e;
+	}
+	List<String> versions = null;
+	try {
+	    versions = source.getVersions(key.namespace, key.schemaName);
+	    if (versions == null) {
+		versions = Collections.emptyList();
+	    }
+	} catch (Exception e) {
+	    // the active version is still usable, the version list is read again on next use
+	    loadFailures.increment();
+	    LOG.debug("Reading versions of schema {} failed", key.schemaName, e);
+	}
+	return new Entry(activeVersion, versions);
+    }
+
+    private void put(Key key, Entry entry, long now) {
+	if (!entry.hasVersions()) {
+	    return;
+	}
+	if (!entries.containsKey(key) && entries.size() >= maxSize) {
+	    evictLeastRecentlyUsed();
+	}
+	entries.put(key, new CachedEntry(entry, now));
+	KnownVersions previous = known.get(key);
+	if (previous == null) {
+	    // nothing was built from the schema yet
+	    previous = known.putIfAbsent(key, new KnownVersions(key, entry, 0));
+	    if (previous == null) {
+		return;
+	    }
+	}
+	if (previous.entry.hasSameVersions(entry)) {
+	    return;
+	}
+	synchronized (known) {
+	    if (!known.get(key).entry.hasSameVersions(entry)) {
+		known.put(key, new KnownVersions(key, entry, nextGeneration()));
+	    }
+	}
+    }
+
+    /**
+     * Remembers that rows of a schema were left out as its versions could not be read, so reading
+     * them later moves the generation.
+     */
+    private void markMissing(Key key) {
+	known.putIfAbsent(key, new KnownVersions(key, MISSING, 0));
+    }
+
+    private void evictLeastRecentlyUsed() {
+	Key eldest = null;
+	long eldestAccess = Long.MAX_VALUE;
+	for (Map.Entry<Key, CachedEntry> e : entries.entrySet()) {
+	    if (e.getValue().lastAccess < eldestAccess) {
+		eldestAccess = e.getValue().lastAccess;
+		eldest = e.getKey();
+	    }
+	}
+	if (eldest != null && entries.remove(eldest) != null) {
+	    evictions.increment();
+	}
+    }
+
+    private void scheduleRefresh(final Key key, final CachedEntry cached) {
+	if (!cached.refreshing.compareAndSet(false, true)) {
+	    return;
+	}
+	refresher.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		try {
+		    Entry entry = load(key);
+		    refreshes.increment();
+		    put(key, entry, System.currentTimeMillis());
+		} catch (Exception e) {
+		    if (FALLBACK_ERROR.equals(getReason(e))) {
+			LOG.warn("Refresh of schema {} failed, serving cached versions until expiry", key.schemaName, e);
+		    } else {
+			LOG.debug("Refresh of schema {} failed, serving cached versions until expiry: {}",
+				key.schemaName, e.getMessage());
+		    }
+		} finally {
+		    cached.refreshing.set(false);
+		}
+	    }
+	});
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void invalidateAll() {
+	entries.clear();
+	nextGeneration();
+    }
+
+    private long nextGeneration() {
+	generationChangedAt = System.currentTimeMillis();
+	return generation.incrementAndGet();
+    }
+
+    /**
+     * @return generation of the cached versions
+     */
+    long getGeneration() {
+	return generation.get();
+    }
+
+    /**
+     * @param namespace
+     * @param schemaName
+     * @return generation the versions of the schema last changed in, 0 if they did not change since
+     *         first read
+     */
+    long getGeneration(String namespace, String schemaName) {
+	KnownVersions versions = known.get(new Key(namespace, schemaName));
+	return versions == null ? 0 : versions.changedIn;
+    }
+
+    /**
+     * @param namespace
+     * @param generation
+     * @return names of the schemas of the namespace whose versions changed after the generation
+     */
+    List<String> getSchemasChangedSince(String namespace, long generation) {
+	List<String> schemaNames = new ArrayList<>();
+	for (Map.Entry<Key, KnownVersions> entry : known.entrySet()) {
+	    if (entry.getValue().changedIn > generation && entry.getKey().namespace.equals(namespace)) {
+		schemaNames.add(entry.getKey().schemaName);
+	    }
+	}
+	return schemaNames;
+    }
+
+    /**
+     * Returns a hash of the versions last served per schema, which unlike the generation is the same
+     * on every node that served the same versions. A schema that could not be read has a hash of its
+     * own.
+     *
+     * @param namespace
+     * @return hash of the schema name and versions by schema name, for the schemas of the namespace
+     *         read so far
+     */
+    Map<String, Long> getVersionHashes(String namespace) {
+	Map<String, Long> hashes = new HashMap<>();
+	for (Map.Entry<Key, KnownVersions> entry : known.entrySet()) {
+	    if (entry.getKey().namespace.equals(namespace)) {
+		hashes.put(entry.getKey().schemaName, entry.getValue().versionsHash);
+	    }
+	}
+	return hashes;
+    }
+
+    /**
+     * @return time in ms the generation was last incremented
+     */
+    long getGenerationChangedAt() {
+	return generationChangedAt;
+    }
+
+    int size() {
+	return entries.size();
+    }
+
+    long getHits() {
+	return hits.sum();
+    }
+
+    long getMisses() {
+	return misses.sum();
+    }
+
+    long getRefreshes() {
+	return refreshes.sum();
+    }
+
+    long getEvictions() {
+	return evictions.sum();
+    }
+
+    long getLoadFailures() {
+	return loadFailures.sum();
+    }
+
+    /**
+     * @return number of times the last known versions were served as reloading failed
+     */
+    long getFallbacks() {
+	return fallbacks.sum();
+    }
+
+    void shutdown() {
+	refresher.shutdownNow();
+    }
+
+    /**
+     * Schema versions of one schema. The version lists are shared by the rows of the schema, callers
+     * must copy them before modifying.
+     */
+    static final class Entry {
+	private final String activeVersion;
+	private final List<String> versions;
+	private final ConcurrentMap<String, List<String>> majorVersions = new ConcurrentHashMap<>();
+
+	Entry(String activeVersion, List<String> versions) {
+	    this.activeVersion = StringPool.intern(activeVersion);
+	    this.versions = versions == null ? null : Collections.unmodifiableList(intern(versions));
+	}
+
+	private static List<String> intern(List<String> versions) {
+	    List<String> interned = new ArrayList<>(versions.size());
+	    for (String version : versions) {
+		interned.add(StringPool.intern(version));
+	    }
+	    return interned;
+	}
+
+	String getActiveVersion() {
+	    return activeVersion;
+	}
+
+	boolean hasVersions() {
+	    return versions != null;
+	}
+
+	boolean hasSameVersions(Entry other) {
+	    return Objects.equals(activeVersion, other.activeVersion) && Objects.equals(versions, other.versions);
+	}
+
+	/**
+	 * Returns the allowed major versions for a default schema version, latest first.
+	 *
+	 * @param defaultSchemaVersion
+	 * @return the filtered versions
+	 * @throws IllegalStateException
+	 *             if the version list could not be read
+	 */
+	List<String> getMajorVersions(String defaultSchemaVersion) {
+	    if (versions == null) {
+		throw new IllegalStateException("versions of schema not available");
+	    }
+	    List<String> filtered = majorVersions.get(defaultSchemaVersion);
+	    if (filtered == null) {
+		List<String> allowed = NtfUtils.filterAllowedVersions(new ArrayList<>(versions), defaultSchemaVersion);
+		filtered = Collections.unmodifiableList(
+			NtfTemplateRestExtNew.filterMajorVersions(allowed, defaultSchemaVersion));
+		List<String> present = majorVersions.putIfAbsent(defaultSchemaVersion, filtered);
+		if (present != null) {
+		    // all rows of the schema share one list
+		    filtered = present;
+		}
+	    }
+	    return filtered;
+	}
+    }
+
+    // versions of a schema that could not be read, differs from every read entry
+    private static final Entry MISSING = new Entry(null, null);
+
+    private static final class KnownVersions {
+	final Entry entry;
+	final long changedIn;
+	final long versionsHash;
+
+	KnownVersions(Key key, Entry entry, long changedIn) {
+	    this.entry = entry;
+	    this.changedIn = changedIn;
+	    this.versionsHash = TemplateEntityTag.hash(key.schemaName + '|'
+		    + (entry == MISSING ? "missing" : entry.activeVersion + '|' + entry.versions));
+	}
+    }
+
+    private static final class CachedEntry {
+	final Entry entry;
+	final long loadedAt;
+	final AtomicBoolean refreshing = new AtomicBoolean();
+	volatile long lastAccess;
+
+	CachedEntry(Entry entry, long loadedAt) {
+	    this.entry = entry;
+	    this.loadedAt = loadedAt;
+	    this.lastAccess = loadedAt;
+	}
+    }
+
+    private static final class Key {
+	final String namespace;
+	final String schemaName;
+
+	Key(String namespace, String schemaName) {
+	    this.namespace = namespace;
+	    this.schemaName = schemaName;
+	}
+
+	@Override
+	public int hashCode() {
+	    return 31 * namespace.hashCode() + schemaName.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (!(obj instanceof Key)) {
+		return false;
+	    }
+	    Key other = (Key) obj;
+	    return namespace.equals(other.namespace) && schemaName.equals(other.schemaName);
+	}
+    }
+}
@@ -0,0 +1,115 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted set of schema versions, latest first and without duplicates. The versions are kept in an
+ * array, so adding a version is a binary search plus an array copy and merging the small version
+ * lists of template rows allocates nothing but the growth of the array.
+ */
+final class SchemaVersionSet {
+
+    private SchemaVersion[] versions;
+    private int size;
+
+    SchemaVersionSet(int capacity) {
+	versions = new SchemaVersion[Math.max(capacity, 4)];
+    }
+
+    /**
+     * @param versions
+     *            - version texts, null entries are skipped
+     * @return set of the versions
+     */
+    static SchemaVersionSet of(List<String> versions) {
+	SchemaVersionSet set = new SchemaVersionSet(versions == null ? 0 : versions.size());
+	set.addAll(versions);
+	return set;
+    }
+
+    /**
+     * @param version
+     * @return true if the version was not yet in the set
+     */
+    boolean add(SchemaVersion version) {
+	// latest first, so search with reversed order
+	int low = 0;
+	int high = size - 1;
+	while (low <= high) {
+	    int mid = (low + high) >>> 1;
+	    int c = version.compareTo(versions[mid]);
+	    if (c == 0) {
+		return false;
+	    }
+	    if (c > 0) {
+		high = mid - 1;
+	    } else {
+		low = mid + 1;
+	    }
+	}
+	if (size == versions.length) {
+	    versions = Arrays.copyOf(versions, size * 2);
+	}
+	System.arraycopy(versions, low, versions, low + 1, size - low);
+	versions[low] = version;
+	size++;
+	return true;
+    }
+
+    /**
+     * @param texts
+     *            - version texts, null entries are skipped
+     */
+    void addAll(List<String> texts) {
+	if (texts == null) {
+	    return;
+	}
+	for (int i = 0, n = texts.size(); i < n; i++) {
+	    String text = texts.get(i);
+	    if (text != null) {
+		add(SchemaVersion.parse(text));
+	    }
+	}
+    }
+
+    int size() {
+	return size;
+    }
+
+    /**
+     * @param index
+     * @return version at the index, latest first
+     */
+    SchemaVersion get(int index) {
+	if (index >= size) {
+	    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+	return versions[index];
+    }
+
+    /**
+     * @return the latest version of each major version, latest first
+     */
+    List<String> toLatestPerMajor() {
+	List<String> latest = new ArrayList<>();
+	for (int i = 0; i < size; i++) {
+	    if (i == 0 || !versions[i].isSameMajor(versions[i - 1])) {
+		latest.add(versions[i].toString());
+	    }
+	}
+	return latest;
+    }
+
+    /**
+     * @return the version texts, latest first
+     */
+    List<String> toList() {
+	List<String> list = new ArrayList<>(size);
+	for (int i = 0; i < size; i++) {
+	    list.add(versions[i].toString());
+	}
+	return list;
+    }
+}
@@ -0,0 +1,31 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.List;
+
+/**
+ * Source of the schema versions of a notification schema, normally the Zookeeper backed
+ * SchemaConfigurationService.
+ */
+interface SchemaVersionSource {
+
+    /**
+     * @return false if the schema service can not be reached at all
+     */
+    boolean isAvailable();
+
+    /**
+     * @param namespace
+     * @param schemaName
+     * @return active version of the schema
+     * @throws Exception
+     */
+    String getActiveVersion(String namespace, String schemaName) throws Exception;
+
+    /**
+     * @param namespace
+     * @param schemaName
+     * @return all versions of the schema, latest first
+     * @throws Exception
+     */
+    List<String> getVersions(String namespace, String schemaName) throws Exception;
+}
@@ -0,0 +1,119 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical concurrent computations. While a computation of a key is in flight, callers
+ * with the same key join it and get its result or its exception instead of computing it again.
+ * Joining does not block: the first caller of a key leads the flight and runs the computation, the
+ * others wait on the future of the flight. A computation is only shared while it runs, its result is
+ * not kept.
+ *
+ * @param <K>
+ *            - key of a computation
+ * @param <V>
+ *            - result of a computation
+ */
+final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * Computation of one key
+     */
+    static final class Flight<K, V> {
+	private final K key;
+	private final CompletableFuture<V> result;
+	private final boolean leader;
+
+	private Flight(K key, CompletableFuture<V> result, boolean leader) {
+	    this.key = key;
+	    this.result = result;
+	    this.leader = leader;
+	}
+
+	/**
+	 * @return true if the caller has to run the computation and land the flight
+	 */
+	boolean isLeader() {
+	    return leader;
+	}
+
+	/**
+	 * @return result of the computation, completed when the flight lands
+	 */
+	CompletableFuture<V> getResult() {
+	    return result;
+	}
+    }
+
+    /**
+     * Joins the computation of a key, or starts it if the key is not in flight. The leader of a
+     * flight must end it with {@link #complete} or {@link #fail}.
+     *
+     * @param key
+     * @return the flight of the key
+     */
+    Flight<K, V> join(K key) {
+	CompletableFuture<V> result = new CompletableFuture<>();
+	CompletableFuture<V> running = inFlight.putIfAbsent(key, result);
+	if (running == null) {
+	    executions.increment();
+	    return new Flight<>(key, result, true);
+	}
+	coalesced.increment();
+	return new Flight<>(key, running, false);
+    }
+
+    /**
+     * Lands a flight with the result of its computation.
+     *
+     * @param flight
+     *            - flight led by the caller
+     * @param value
+     */
+    void complete(Flight<K, V> flight, V value) {
+	// callers joining from now on start a new computation
+	inFlight.remove(flight.key, flight.result);
+	flight.result.complete(value);
+    }
+
+    /**
+     * Lands a flight with the exception of its computation.
+     *
+     * @param flight
+     *            - flight led by the caller
+     * @param failure
+     */
+    void fail(Flight<K, V> flight, Throwable failure) {
+	inFlight.remove(flight.key, flight.result);
+	flight.result.completeExceptionally(failure);
+    }
+
+    /**
+     * @return number of computations in flight
+     */
+    int getInFlight() {
+	return inFlight.size();
+    }
+
+    /**
+     * @return number of computations run
+     */
+    long getExecutions() {
+	return executions.sum();
+    }
+
+    /**
+     * @return number of callers that got the result of a computation run for another caller
+     */
+    long getCoalesced() {
+	return coalesced.sum();
+    }
+}
@@ -0,0 +1,47 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Pool of shared String instances for the values repeated on many template rows: applicationIds,
+ * categories and schema versions. Rows built from equal values then reference one instance instead
+ * of a fresh String each.<br>
+ * The pool is bounded, it is cleared when full, as the set of values in use is small.
+ */
+final class StringPool {
+
+    private static final int MAX_SIZE = TemplateEnquiryConfig.STRING_POOL_MAX_SIZE;
+    private static final ConcurrentMap<String, String> POOL = new ConcurrentHashMap<>();
+
+    private StringPool() {
+    }
+
+    /**
+     * @param value
+     * @return the pooled instance equal to the value, null for null
+     */
+    static String intern(String value) {
+	if (value == null || MAX_SIZE <= 0) {
+	    return value;
+	}
+	String pooled = POOL.get(value);
+	if (pooled == null) {
+	    if (POOL.size() >= MAX_SIZE) {
+		POOL.clear();
+	    }
+	    pooled = POOL.putIfAbsent(value, value);
+	    if (pooled == null) {
+		pooled = value;
+	    }
+	}
+	return pooled;
+    }
+
+    /**
+     * @return number of pooled values
+     */
+    static int size() {
+	return POOL.size();
+    }
+}
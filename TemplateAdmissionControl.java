@@ -0,0 +1,294 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.core.Response;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Admission control of the template requests, checked before a request does any DAE or schema
+ * work:
+ * <ul>
+ * <li>a token bucket per applicationId of the query, a query of all applicationIds is charged to an
+ * all-applicationIds bucket of its client</li>
+ * <li>a token bucket per client, the client is the remote address or the value of a configured
+ * request header, e.g. the address forwarded by a load balancer or the PAC id. Of a forwarding
+ * header listing several addresses the one appended by the outermost trusted proxy is used, the
+ * entries before it are set by the client.</li>
+ * <li>a limit of concurrently built responses of expensive queries, those of all applicationIds</li>
+ * </ul>
+ * A rate of 0 disables the bucket, a limit of 0 the concurrency limit. All are disabled by default.
+ */
+class TemplateAdmissionControl {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateAdmissionControl.class);
+
+    // seconds a client is asked to wait when all expensive queries are in progress
+    private static final long EXPENSIVE_RETRY_AFTER_SECONDS = 1;
+
+    private final TokenBuckets appBuckets;
+    private final TokenBuckets clientBuckets;
+    private final Semaphore expensiveQueries;
+    private final int maxExpensiveQueries;
+    // request header naming the client, empty for the remote address
+    private final String clientIdHeader;
+    // proxies appending to the client header, the client is the entry appended by the outermost one
+    private final int trustedProxies;
+
+    private final LongAdder rejectedByApp = new LongAdder();
+    private final LongAdder rejectedByClient = new LongAdder();
+    private final LongAdder rejectedExpensive = new LongAdder();
+
+    /**
+     * @param appRatePerSecond
+     *            - requests per second and applicationId
+     * @param appBurst
+     *            - requests per applicationId admitted at once
+     * @param clientRatePerSecond
+     *            - requests per second and client
+     * @param clientBurst
+     *            - requests per client admitted at once
+     * @param maxExpensiveQueries
+     *            - concurrently built responses of applicationId=*
+     * @param maxBuckets
+     *            - buckets kept per kind, the least recently used are dropped beyond it
+     * @param clientIdHeader
+     *            - request header naming the client, empty to identify clients by their address
+     * @param trustedProxies
+     *            - proxies appending an entry to the client header
+     */
+    TemplateAdmissionControl(int appRatePerSecond, int appBurst, int clientRatePerSecond, int clientBurst,
+	    int maxExpensiveQueries, int maxBuckets, String clientIdHeader, int trustedProxies) {
+	appBuckets = new TokenBuckets(appRatePerSecond, appBurst, maxBuckets);
+	clientBuckets = new TokenBuckets(clientRatePerSecond, clientBurst, maxBuckets);
+	this.maxExpensiveQueries = maxExpensiveQueries;
+	expensiveQueries = new Semaphore(Math.max(maxExpensiveQueries, 0));
+	this.clientIdHeader = clientIdHeader;
+	this.trustedProxies = Math.max(trustedProxies, 1);
+    }
+
+    /**
+     * Checks the request rate of the client and the applicationIds of the query, before any DAE or
+     * schema work is done for the request.
+     *
+     * @param query
+     * @param request
+     * @return null if the request is admitted, otherwise the error response
+     */
+    Response admitRequest(TemplateQuery query, HttpServletRequest request) {
+	String clientId = getClientId(request);
+	long retryAfterSeconds = admit(query, clientId);
+	if (retryAfterSeconds == 0) {
+	    return null;
+	}
+	LOG.debug("Template request of client {} for query '{}' rejected, rate limit exceeded", clientId, query);
+	return NtfTemplateRestExtNew.setErrorResponse(NtfTemplateRestExtNew.RATE_LIMITED_CODE,
+		"Too many template requests for applicationId :" + query.getAppIdParam(), retryAfterSeconds);
+    }
+
+    /**
+     * @param request
+     * @return the entry of the client header appended by the outermost trusted proxy, the remote
+     *         address if there is none
+     */
+    String getClientId(HttpServletRequest request) {
+	if (!clientIdHeader.isEmpty()) {
+	    String value = request.getHeader(clientIdHeader);
+	    if (value != null) {
+		// every proxy appends the address it was called from, the entries before those of the
+		// trusted proxies are chosen by the client
+		String[] entries = value.split(",");
+		value = entries[Math.max(entries.length - trustedProxies, 0)].trim();
+		if (!value.isEmpty()) {
+		    return value;
+		}
+	    }
+	}
+	return request.getRemoteAddr();
+    }
+
+    /**
+     * Takes a token of the client and of every applicationId of the query. A query of all
+     * applicationIds takes a token of the all-applicationIds bucket of its client, a bucket shared by
+     * all clients would let one client starve the others.
+     *
+     * @param query
+     * @param clientId
+     *            - client of the request, null if unknown
+     * @return 0 if the request is admitted, otherwise the seconds after which it may be retried
+     */
+    long admit(TemplateQuery query, String clientId) {
+	TokenBucket clientBucket = clientId == null ? null : clientBuckets.get(clientId);
+	long retryAfterNanos = clientBucket == null ? 0 : clientBucket.tryAcquire();
+	if (retryAfterNanos > 0) {
+	    rejectedByClient.increment();
+	    return toSeconds(retryAfterNanos);
+	}
+	List<String> appKeys = query.isAllApps() ? Collections.singletonList("*|" + clientId) : query.getAppIds();
+	List<TokenBucket> acquired = new ArrayList<>(appKeys.size());
+	for (String appKey : appKeys) {
+	    TokenBucket bucket = appBuckets.get(appKey);
+	    if (bucket == null) {
+		continue;
+	    }
+	    retryAfterNanos = bucket.tryAcquire();
+	    if (retryAfterNanos > 0) {
+		// the client and the other applicationIds of the query are not charged for a rejected
+		// request
+		for (TokenBucket taken : acquired) {
+		    taken.release();
+		}
+		if (clientBucket != null) {
+		    clientBucket.release();
+		}
+		rejectedByApp.increment();
+		return toSeconds(retryAfterNanos);
+	    }
+	    acquired.add(bucket);
+	}
+	return 0;
+    }
+
+    /**
+     * @param query
+     * @return true if the response of the query may be built now, it must be followed by
+     *         {@link #release(TemplateQuery)}
+     */
+    boolean tryAcquire(TemplateQuery query) {
+	if (!isExpensive(query) || expensiveQueries.tryAcquire()) {
+	    return true;
+	}
+	rejectedExpensive.increment();
+	return false;
+    }
+
+    /**
+     * @param query
+     *            - query a call of {@link #tryAcquire(TemplateQuery)} returned true for
+     */
+    void release(TemplateQuery query) {
+	if (isExpensive(query)) {
+	    expensiveQueries.release();
+	}
+    }
+
+    private boolean isExpensive(TemplateQuery query) {
+	return maxExpensiveQueries > 0 && query.isAllApps();
+    }
+
+    long getExpensiveRetryAfterSeconds() {
+	return EXPENSIVE_RETRY_AFTER_SECONDS;
+    }
+
+    int getActiveExpensiveQueries() {
+	return maxExpensiveQueries > 0 ? maxExpensiveQueries - expensiveQueries.availablePermits() : 0;
+    }
+
+    long getRejectedByApp() {
+	return rejectedByApp.sum();
+    }
+
+    long getRejectedByClient() {
+	return rejectedByClient.sum();
+    }
+
+    long getRejectedExpensive() {
+	return rejectedExpensive.sum();
+    }
+
+    private static long toSeconds(long nanos) {
+	return Math.max(1, (nanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * Token buckets by key, created on first use. Beyond {@code maxBuckets} the least recently used
+     * bucket is dropped, it is recreated full on its next use.
+     */
+    private static final class TokenBuckets {
+	private final int ratePerSecond;
+	private final int burst;
+	// access ordered, guarded by this
+	private final LinkedHashMap<String, TokenBucket> buckets;
+
+	TokenBuckets(int ratePerSecond, int burst, final int maxBuckets) {
+	    this.ratePerSecond = ratePerSecond;
+	    this.burst = Math.max(burst, 1);
+	    this.buckets = new LinkedHashMap<String, TokenBucket>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, TokenBucket> eldest) {
+		    return size() > maxBuckets;
+		}
+	    };
+	}
+
+	/**
+	 * @return the bucket of the key, null if the rate is not limited
+	 */
+	TokenBucket get(String key) {
+	    if (ratePerSecond <= 0) {
+		return null;
+	    }
+	    synchronized (this) {
+		TokenBucket bucket = buckets.get(key);
+		if (bucket == null) {
+		    bucket = new TokenBucket(ratePerSecond, burst);
+		    buckets.put(key, bucket);
+		}
+		return bucket;
+	    }
+	}
+    }
+
+    /**
+     * Bucket of {@code burst} tokens refilled with {@code ratePerSecond} tokens per second, a request
+     * takes one token
+     */
+    private static final class TokenBucket {
+	private final double tokensPerNano;
+	private final double burst;
+	// guarded by this
+	private double tokens;
+	private long refilledAt = System.nanoTime();
+
+	TokenBucket(int ratePerSecond, int burst) {
+	    this.tokensPerNano = ratePerSecond / (double) TimeUnit.SECONDS.toNanos(1);
+	    this.burst = burst;
+	    this.tokens = burst;
+	}
+
+	/**
+	 * @return 0 if a token was taken, otherwise the nanoseconds until the next token
+	 */
+	synchronized long tryAcquire() {
+	    refill(System.nanoTime());
+	    if (tokens >= 1) {
+		tokens -= 1;
+		return 0;
+	    }
+	    return (long) Math.ceil((1 - tokens) / tokensPerNano);
+	}
+
+	synchronized void release() {
+	    tokens = Math.min(burst, tokens + 1);
+	}
+
+	private void refill(long now) {
+	    if (now > refilledAt) {
+		tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+		refilledAt = now;
+	    }
+	}
+    }
+}
@@ -0,0 +1,168 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.TreeMap;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.common.util.NtfUtils;
+
+/**
+ * Inverted index from category to the templates of a snapshot, so a category query only visits the
+ * templates it returns. Two matches are indexed:
+ * <ul>
+ * <li>exact: the templates with a notification of the same (appId, templateId) whose safeToString
+ * category equals the category, as the join of {@link NtfTemplateRestExtNew} matches</li>
+ * <li>legacy: the templates whose category, the category of the first notification with the same
+ * templateId, equals the category ignoring case, as {@link NtfTemplateRestExt} matches</li>
+ * </ul>
+ * The templates of a category keep the order of the template list.
+ */
+final class TemplateCategoryIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final List<Template> templates;
+    private final Map<String, int[]> byCategory;
+    // compared like equalsIgnoreCase
+    private final Map<String, int[]> byLegacyCategory;
+    // category of the first notification per templateId
+    private final Map<String, String> legacyCategories;
+
+    private TemplateCategoryIndex(List<Template> templates, Map<String, int[]> byCategory,
+	    Map<String, int[]> byLegacyCategory, Map<String, String> legacyCategories) {
+	this.templates = templates;
+	this.byCategory = byCategory;
+	this.byLegacyCategory = byLegacyCategory;
+	this.legacyCategories = legacyCategories;
+    }
+
+    /**
+     * @param templates
+     *            - templates of the snapshot, must not be modified afterwards
+     * @param notifications
+     *            - notifications of the snapshot in source order
+     * @param notificationIndex
+     *            - index of the notifications
+     * @return the index
+     */
+    static TemplateCategoryIndex build(List<Template> templates, List<Notification> notifications,
+	    TemplateNotificationIndex notificationIndex) {
+	Map<String, String> legacyCategories = new HashMap<>();
+	for (Notification notification : notifications) {
+	    String templateId = NtfUtils.safeToString(notification.getTemplateId());
+	    if (!legacyCategories.containsKey(templateId)) {
+		legacyCategories.put(templateId,
+			notification.getCategory() == null ? "" : notification.getCategory().toString());
+	    }
+	}
+
+	Map<String, IntList> byCategory = new HashMap<>();
+	Map<String, IntList> byLegacyCategory = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	for (int i = 0; i < templates.size(); i++) {
+	    Template template = templates.get(i);
+	    for (String category : notificationIndex.getCategories(TemplateKey.of(template))) {
+		add(byCategory, category, i);
+	    }
+	    add(byLegacyCategory, getLegacyCategory(legacyCategories, template), i);
+	}
+	return new TemplateCategoryIndex(templates, toArrays(byCategory, new HashMap<String, int[]>()),
+		toArrays(byLegacyCategory, new TreeMap<String, int[]>(String.CASE_INSENSITIVE_ORDER)),
+		legacyCategories);
+    }
+
+    private static void add(Map<String, IntList> map, String category, int position) {
+	IntList list = map.get(category);
+	if (list == null) {
+	    list = new IntList();
+	    map.put(category, list);
+	}
+	list.add(position);
+    }
+
+    private static Map<String, int[]> toArrays(Map<String, IntList> lists, Map<String, int[]> arrays) {
+	for (Map.Entry<String, IntList> entry : lists.entrySet()) {
+	    arrays.put(entry.getKey(), entry.getValue().toArray());
+	}
+	return Collections.unmodifiableMap(arrays);
+    }
+
+    private static String getLegacyCategory(Map<String, String> legacyCategories, Template template) {
+	String category = legacyCategories.get(NtfUtils.safeToString(template.getTemplateId()));
+	return category == null ? "" : category;
+    }
+
+    /**
+     * @param category
+     * @return templates with a notification of exactly the category, in template list order
+     */
+    List<Template> getTemplates(String category) {
+	int[] positions = byCategory.get(category);
+	return new TemplateView(positions == null ? NONE : positions);
+    }
+
+    /**
+     * @param category
+     * @return templates whose legacy category equals the category ignoring case, in template list
+     *         order
+     */
+    List<Template> getTemplatesIgnoreCase(String category) {
+	int[] positions = byLegacyCategory.get(category);
+	return new TemplateView(positions == null ? NONE : positions);
+    }
+
+    /**
+     * @param template
+     * @return category of the first notification with the templateId of the template, empty if there
+     *         is none
+     */
+    String getLegacyCategory(Template template) {
+	return getLegacyCategory(legacyCategories, template);
+    }
+
+    /**
+     * Templates at some positions of the template list
+     */
+    private final class TemplateView extends AbstractList<Template> implements RandomAccess {
+	private final int[] positions;
+
+	TemplateView(int[] positions) {
+	    this.positions = positions;
+	}
+
+	@Override
+	public Template get(int index) {
+	    return templates.get(positions[index]);
+	}
+
+	@Override
+	public int size() {
+	    return positions.length;
+	}
+    }
+
+    /**
+     * Growable list of int positions
+     */
+    private static final class IntList {
+	private int[] values = new int[4];
+	private int size;
+
+	void add(int value) {
+	    if (size == values.length) {
+		values = Arrays.copyOf(values, size * 2);
+	    }
+	    values[size++] = value;
+	}
+
+	int[] toArray() {
+	    return Arrays.copyOf(values, size);
+	}
+    }
+}
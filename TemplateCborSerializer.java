@@ -0,0 +1,190 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.Template_v2;
+
+/**
+ * Serializes template rows to CBOR (RFC 8949), the binary representation of the profileV1 rows
+ * for consumers that decode with a CBOR library instead of parsing JSON.<br>
+ * A row is a map with the Template_v2 property names as text keys and only the properties that are
+ * set, schemaVersions is an array of text strings. Whole lists are definite length arrays, streamed
+ * lists are indefinite length arrays. The encoder is stateless and can be shared.
+ */
+final class TemplateCborSerializer implements TemplateRowSerializer {
+
+    static final String MEDIA_TYPE = "application/cbor";
+
+    // major types
+    private static final int TEXT = 3 << 5;
+    private static final int ARRAY = 4 << 5;
+    private static final int MAP = 5 << 5;
+    private static final int INDEFINITE_ARRAY = ARRAY | 31;
+    private static final int BREAK = 0xff;
+
+    // keys encoded once
+    private static final byte[] KEY_ID = encodeText("id");
+    private static final byte[] KEY_APPLICATION_ID = encodeText("applicationId");
+    private static final byte[] KEY_NAME = encodeText("name");
+    private static final byte[] KEY_CATEGORY = encodeText("category");
+    private static final byte[] KEY_DESCRIPTION = encodeText("description");
+    private static final byte[] KEY_SCHEMA_VERSION = encodeText("schemaVersion");
+    private static final byte[] KEY_SCHEMA_VERSIONS = encodeText("schemaVersions");
+
+    /**
+     * @param acceptHeader
+     *            - Accept header of the request, may be null
+     * @return true if the client prefers CBOR over JSON, JSON wins at equal quality
+     */
+    static boolean isPreferred(String acceptHeader) {
+	if (acceptHeader == null) {
+	    return false;
+	}
+	float cbor = 0;
+	float json = 0;
+	for (String range : acceptHeader.split(",")) {
+	    int semicolon = range.indexOf(';');
+	    String type = (semicolon < 0 ? range : range.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+	    if (MEDIA_TYPE.equals(type)) {
+		cbor = Math.max(cbor, getQuality(range, semicolon));
+	    } else if ("application/json".equals(type)) {
+		json = Math.max(json, getQuality(range, semicolon));
+	    }
+	}
+	return cbor > json;
+    }
+
+    private static float getQuality(String range, int semicolon) {
+	if (semicolon < 0) {
+	    return 1;
+	}
+	for (String param : range.substring(semicolon + 1).split(";")) {
+	    String trimmed = param.trim();
+	    if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+		try {
+		    return Float.parseFloat(trimmed.substring(2).trim());
+		} catch (NumberFormatException e) {
+		    return 0;
+		}
+	    }
+	}
+	return 1;
+    }
+
+    @Override
+    public byte[] serialize(List<?> rows) throws IOException {
+	ByteArrayOutputStream out = new ByteArrayOutputStream(16 + rows.size() * 160);
+	writeHead(out, ARRAY, rows.size());
+	for (Object row : rows) {
+	    writeRow(out, row);
+	}
+	return out.toByteArray();
+    }
+
+    @Override
+    public ArrayWriter openArray(final OutputStream out) throws IOException {
+	out.write(INDEFINITE_ARRAY);
+	return new ArrayWriter() {
+	    @Override
+	    public void write(Object row) throws IOException {
+		writeRow(out, row);
+	    }
+
+	    @Override
+	    public void close() throws IOException {
+		out.write(BREAK);
+		out.flush();
+	    }
+	};
+    }
+
+    private static void writeRow(OutputStream out, Object row) throws IOException {
+	if (!(row instanceof Template_v2)) {
+	    throw new IOException("No CBOR encoding for template row " + (row == null ? null : row.getClass()));
+	}
+	Template_v2 template = (Template_v2) row;
+	String id = template.getId();
+	String applicationId = template.getApplicationId();
+	String name = template.getName();
+	String category = template.getCategory();
+	String description = template.getDescription();
+	String schemaVersion = template.getSchemaVersion();
+	List<String> schemaVersions = template.getSchemaVersions();
+
+	int size = count(id) + count(applicationId) + count(name) + count(category) + count(description)
+		+ count(schemaVersion) + count(schemaVersions);
+	writeHead(out, MAP, size);
+	writeEntry(out, KEY_ID, id);
+	writeEntry(out, KEY_APPLICATION_ID, applicationId);
+	writeEntry(out, KEY_NAME, name);
+	writeEntry(out, KEY_CATEGORY, category);
+	writeEntry(out, KEY_DESCRIPTION, description);
+	writeEntry(out, KEY_SCHEMA_VERSION, schemaVersion);
+	if (schemaVersions != null) {
+	    out.write(KEY_SCHEMA_VERSIONS);
+	    writeHead(out, ARRAY, schemaVersions.size());
+	    for (String version : schemaVersions) {
+		writeText(out, version);
+	    }
+	}
+    }
+
+    private static int count(Object value) {
+	return value == null ? 0 : 1;
+    }
+
+    private static void writeEntry(OutputStream out, byte[] key, String value) throws IOException {
+	if (value != null) {
+	    out.write(key);
+	    writeText(out, value);
+	}
+    }
+
+    private static void writeText(OutputStream out, String value) throws IOException {
+	byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+	writeHead(out, TEXT, utf8.length);
+	out.write(utf8);
+    }
+
+    /**
+     * Writes the initial bytes of a data item in the shortest form.
+     */
+    private static void writeHead(OutputStream out, int majorType, long argument) throws IOException {
+	if (argument < 24) {
+	    out.write(majorType | (int) argument);
+	} else if (argument < 0x100) {
+	    out.write(majorType | 24);
+	    out.write((int) argument);
+	} else if (argument < 0x10000) {
+	    out.write(majorType | 25);
+	    out.write((int) (argument >>> 8));
+	    out.write((int) argument);
+	} else if (argument < 0x100000000L) {
+	    out.write(majorType | 26);
+	    for (int shift = 24; shift >= 0; shift -= 8) {
+		out.write((int) (argument >>> shift));
+	    }
+	} else {
+	    out.write(majorType | 27);
+	    for (int shift = 56; shift >= 0; shift -= 8) {
+		out.write((int) (argument >>> shift));
+	    }
+	}
+    }
+
+    private static byte[] encodeText(String value) {
+	ByteArrayOutputStream out = new ByteArrayOutputStream();
+	try {
+	    writeText(out, value);
+	} catch (IOException e) {
+	    // not thrown by ByteArrayOutputStream
+	    throw new IllegalStateException(e);
+	}
+	return out.toByteArray();
+    }
+}
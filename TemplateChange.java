@@ -0,0 +1,56 @@
+package com.ericsson.ntf.ext.webservices;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.ext.webservices.TemplateChangeListener.ChangeType;
+
+/**
+ * Change of one template or notification record, queued until it is applied to the snapshot.
+ */
+final class TemplateChange {
+
+    private final ChangeType type;
+    private final Template template;
+    private final Notification notification;
+
+    private TemplateChange(ChangeType type, Template template, Notification notification) {
+	this.type = type;
+	this.template = template;
+	this.notification = notification;
+    }
+
+    static TemplateChange of(ChangeType type, Template template) {
+	return new TemplateChange(type, template, null);
+    }
+
+    static TemplateChange of(ChangeType type, Notification notification) {
+	return new TemplateChange(type, null, notification);
+    }
+
+    boolean isDelete() {
+	return type == ChangeType.DELETED;
+    }
+
+    /**
+     * @return the changed template or null if a notification changed
+     */
+    Template getTemplate() {
+	return template;
+    }
+
+    /**
+     * @return the changed notification or null if a template changed
+     */
+    Notification getNotification() {
+	return notification;
+    }
+
+    TemplateKey getKey() {
+	return template != null ? TemplateKey.of(template) : TemplateKey.of(notification);
+    }
+
+    @Override
+    public String toString() {
+	return type + (template != null ? " template " : " notification ") + getKey();
+    }
+}
@@ -0,0 +1,33 @@
+package com.ericsson.ntf.ext.webservices;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+
+/**
+ * Listener of changes of the template and notification records, registered at an
+ * {@link ObservableDataAccessEnabler}. A template is identified by (appId, templateId), a
+ * notification by (appId, templateId, category). ADDED and UPDATED both replace the record with the
+ * same identity, so a change may be delivered more than once. Templates sharing (appId, templateId)
+ * are told apart by their templateName: a change replaces or deletes the template of its name, a
+ * template of a new name is added and deleting a name that is not present changes nothing.
+ */
+public interface TemplateChangeListener {
+
+    enum ChangeType {
+	ADDED, UPDATED, DELETED
+    }
+
+    /**
+     * @param type
+     * @param template
+     *            - the template after the change, or the deleted template
+     */
+    void templateChanged(ChangeType type, Template template);
+
+    /**
+     * @param type
+     * @param notification
+     *            - the notification after the change, or the deleted notification
+     */
+    void notificationChanged(ChangeType type, Notification notification);
+}
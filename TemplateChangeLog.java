@@ -0,0 +1,157 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ericsson.ntf.ext.webservices.TemplateChangeListener.ChangeType;
+
+/**
+ * Bounded log of the (appId, templateId) keys changed by every snapshot revision, used to answer
+ * which templates changed since a revision. The log holds the changes of at most
+ * {@code maxRevisions} consecutive revisions and {@code maxKeys} keys, the oldest revisions are
+ * dropped first.<br>
+ * Revisions are only comparable within one log, the random epoch identifies it. Every node and every
+ * run of a node has a log of its own, so changes can only be read from the node that handed out the
+ * revision: a change feed behind a load balancer needs sticky routing, a token of another node has
+ * another epoch and is answered with a full resync.
+ */
+class TemplateChangeLog {
+
+    private final int maxRevisions;
+    private final int maxKeys;
+    private final long epoch = new SecureRandom().nextLong();
+
+    // guarded by this, oldest first
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private int keyCount;
+    // revision the oldest entry was applied to, changes since older revisions are unknown
+    private long baseRevision = -1;
+    private long latestRevision = -1;
+
+    TemplateChangeLog(int maxRevisions, int maxKeys) {
+	this.maxRevisions = maxRevisions;
+	this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Records the changes of a new snapshot, to be called before the snapshot is published.
+     *
+     * @param previous
+     *            - snapshot the new one was derived from, null for the first snapshot
+     * @param next
+     *            - new snapshot
+     */
+    synchronized void record(TemplateDataSnapshot previous, TemplateDataSnapshot next) {
+	if (previous == null || previous.getRevision() != latestRevision) {
+	    // nothing known before this revision
+	    entries.clear();
+	    keyCount = 0;
+	    baseRevision = next.getRevision();
+	    latestRevision = next.getRevision();
+	    return;
+	}
+	Map<TemplateKey, ChangeType> changes = new HashMap<>();
+	for (TemplateKey key : next.getChangedKeys()) {
+	    boolean before = previous.getTemplateGroup(key) != null;
+	    boolean after = next.getTemplateGroup(key) != null;
+	    if (before || after) {
+		changes.put(key, !before ? ChangeType.ADDED : after ? ChangeType.UPDATED : ChangeType.DELETED);
+	    }
+	}
+	entries.addLast(new Entry(next.getRevision(), changes));
+	keyCount += changes.size();
+	latestRevision = next.getRevision();
+	while (!entries.isEmpty() && (entries.size() > maxRevisions || keyCount > maxKeys)) {
+	    Entry dropped = entries.removeFirst();
+	    keyCount -= dropped.changes.size();
+	    baseRevision = dropped.revision;
+	}
+    }
+
+    /**
+     * Returns the net change of every key changed after a revision up to another one. A key added
+     * and deleted again in between is not contained.
+     *
+     * @param sinceRevision
+     *            - revision the client has
+     * @param untilRevision
+     *            - revision of the snapshot the changes are read from
+     * @return changed keys in order of their first change, null if the changes since the revision
+     *         are no longer or not known
+     */
+    synchronized Map<TemplateKey, ChangeType> getChangesSince(long sinceRevision, long untilRevision) {
+	if (sinceRevision < baseRevision || sinceRevision > untilRevision || untilRevision > latestRevision) {
+	    return null;
+	}
+	Map<TemplateKey, ChangeType> merged = new LinkedHashMap<>();
+	for (Entry entry : entries) {
+	    if (entry.revision <= sinceRevision) {
+		continue;
+	    }
+	    if (entry.revision > untilRevision) {
+		break;
+	    }
+	    for (Map.Entry<TemplateKey, ChangeType> change : entry.changes.entrySet()) {
+		ChangeType before = merged.get(change.getKey());
+		ChangeType net = merge(before, change.getValue());
+		if (net == null) {
+		    merged.remove(change.getKey());
+		} else {
+		    merged.put(change.getKey(), net);
+		}
+	    }
+	}
+	return merged;
+    }
+
+    /**
+     * @return net change of two consecutive changes of a key, null if there is none
+     */
+    private static ChangeType merge(ChangeType before, ChangeType after) {
+	if (before == null) {
+	    return after;
+	}
+	if (before == ChangeType.ADDED) {
+	    return after == ChangeType.DELETED ? null : ChangeType.ADDED;
+	}
+	if (before == ChangeType.DELETED) {
+	    return after == ChangeType.DELETED ? ChangeType.DELETED : ChangeType.UPDATED;
+	}
+	return after == ChangeType.ADDED ? ChangeType.UPDATED : after;
+    }
+
+    /**
+     * @return random id of the log, changes to revisions of another epoch are unknown
+     */
+    long getEpoch() {
+	return epoch;
+    }
+
+    /**
+     * @return oldest revision changes can be read since, -1 before the first snapshot
+     */
+    synchronized long getBaseRevision() {
+	return baseRevision;
+    }
+
+    synchronized int getRevisions() {
+	return entries.size();
+    }
+
+    synchronized int getKeyCount() {
+	return keyCount;
+    }
+
+    private static final class Entry {
+	final long revision;
+	final Map<TemplateKey, ChangeType> changes;
+
+	Entry(long revision, Map<TemplateKey, ChangeType> changes) {
+	    this.revision = revision;
+	    this.changes = changes;
+	}
+    }
+}
@@ -0,0 +1,206 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the template data of the nodes of a cluster in step. A new snapshot revision of this node is
+ * announced on the {@link TemplateInvalidationChannel}, an announcement of another node reloads the
+ * snapshot of this node in the background, which also replaces the cached responses as they are
+ * keyed by the revision.<br>
+ * Announcements carry a Lamport clock: the clock is incremented for every announcement sent and
+ * advanced past every clock received. They also carry the epoch of the node, the time it was
+ * started, as a restarted node with a configured id starts counting again. An announcement is
+ * applied if it is from a later epoch than the last one seen from the same node, or from the same
+ * epoch with a higher clock, so repeated and late announcements are ignored. A revision read because
+ * of an announcement is not announced again.
+ */
+class TemplateClusterInvalidation
+	implements TemplateSnapshotCache.RevisionListener, TemplateInvalidationChannel.Listener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateClusterInvalidation.class);
+
+    private static final AtomicInteger NODES = new AtomicInteger();
+
+    private final String nodeId;
+    // time this node started announcing, orders the announcements of a node across restarts
+    private final long epoch = System.currentTimeMillis();
+    private final TemplateInvalidationChannel channel;
+    private final TemplateSnapshotCache snapshotCache;
+    private final AtomicLong clock = new AtomicLong();
+    // latest announcement received per node
+    private final ConcurrentMap<String, TemplateInvalidation> lastSeen = new ConcurrentHashMap<>();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+
+    TemplateClusterInvalidation(String nodeId, TemplateInvalidationChannel channel,
+	    TemplateSnapshotCache snapshotCache) {
+	this.nodeId = nodeId;
+	this.channel = channel;
+	this.snapshotCache = snapshotCache;
+    }
+
+    /**
+     * Creates the invalidation of a context from the {@code cluster.*} properties.
+     *
+     * @param snapshotCache
+     *            - snapshot cache of the context
+     * @return the started invalidation, null if no channel is configured or it can not be opened
+     */
+    static TemplateClusterInvalidation start(TemplateSnapshotCache snapshotCache) {
+	String channelName = TemplateEnquiryConfig.CLUSTER_CHANNEL;
+	if (channelName.isEmpty() || "none".equals(channelName)) {
+	    return null;
+	}
+	String nodeId = TemplateEnquiryConfig.CLUSTER_NODE_ID;
+	if (nodeId.isEmpty()) {
+	    // one process may hold the contexts of several DAEs
+	    nodeId = ManagementFactory.getRuntimeMXBean().getName() + "#" + NODES.incrementAndGet();
+	}
+	try {
+	    TemplateClusterInvalidation invalidation = new TemplateClusterInvalidation(nodeId,
+		    createChannel(channelName), snapshotCache);
+	    invalidation.start();
+	    return invalidation;
+	} catch (Exception e) {
+	    LOG.error("Template invalidation channel {} could not be opened, template changes of other nodes "
+		    + "are only seen by the periodic reload", channelName, e);
+	    return null;
+	}
+    }
+
+    private static TemplateInvalidationChannel createChannel(String name) throws Exception {
+	switch (name) {
+	case "loopback":
+	    return new LoopbackInvalidationChannel();
+	case "udp":
+	    return new UdpInvalidationChannel();
+	default:
+	    return (TemplateInvalidationChannel) Class.forName(name).newInstance();
+	}
+    }
+
+    /**
+     * Opens the channel and announces the revisions of the snapshot cache from now on.
+     *
+     * @throws IOException
+     *             if the channel can not be opened
+     */
+    void start() throws IOException {
+	channel.open(this);
+	snapshotCache.setRevisionListener(this);
+	LOG.info("Template changes are announced as node {} on {}", nodeId, channel);
+    }
+
+    void stop() {
+	snapshotCache.setRevisionListener(null);
+	channel.close();
+    }
+
+    @Override
+    public void published(TemplateDataSnapshot snapshot, boolean announce) {
+	if (!announce) {
+	    return;
+	}
+	TemplateInvalidation invalidation = new TemplateInvalidation(nodeId, epoch, clock.incrementAndGet(),
+		snapshot.getRevision());
+	try {
+	    channel.publish(invalidation);
+	    sent.increment();
+	    LOG.debug("Announced template change {}", invalidation);
+	} catch (IOException e) {
+	    sendFailures.increment();
+	    LOG.warn("Announcing template change {} failed", invalidation, e);
+	}
+    }
+
+    @Override
+    public void invalidated(TemplateInvalidation invalidation) {
+	if (nodeId.equals(invalidation.getNodeId())) {
+	    return;
+	}
+	received.increment();
+	advanceClock(invalidation.getClock());
+	if (!isNew(invalidation)) {
+	    LOG.debug("Ignoring template change {}, already seen", invalidation);
+	    return;
+	}
+	applied.increment();
+	LOG.info("Template change {} announced, reloading the template snapshot", invalidation);
+	snapshotCache.invalidate(false);
+    }
+
+    private void advanceClock(long received) {
+	long current = clock.get();
+	while (current < received && !clock.compareAndSet(current, received)) {
+	    current = clock.get();
+	}
+	clock.incrementAndGet();
+    }
+
+    /**
+     * @return true if the announcement was sent after all announcements seen from its node
+     */
+    private boolean isNew(TemplateInvalidation invalidation) {
+	String node = invalidation.getNodeId();
+	while (true) {
+	    TemplateInvalidation previous = lastSeen.putIfAbsent(node, invalidation);
+	    if (previous == null) {
+		return true;
+	    }
+	    if (!invalidation.isAfter(previous)) {
+		return false;
+	    }
+	    if (lastSeen.replace(node, previous, invalidation)) {
+		return true;
+	    }
+	}
+    }
+
+    String getNodeId() {
+	return nodeId;
+    }
+
+    long getEpoch() {
+	return epoch;
+    }
+
+    String getChannel() {
+	return channel.toString();
+    }
+
+    long getClock() {
+	return clock.get();
+    }
+
+    int getKnownNodes() {
+	return lastSeen.size();
+    }
+
+    long getSent() {
+	return sent.sum();
+    }
+
+    long getSendFailures() {
+	return sendFailures.sum();
+    }
+
+    long getReceived() {
+	return received.sum();
+    }
+
+    long getApplied() {
+	return applied.sum();
+    }
+}
@@ -0,0 +1,128 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings of template responses. The coding is negotiated from the Accept-Encoding header,
+ * gzip is preferred over deflate at equal quality and identity is always acceptable.
+ */
+final class TemplateContentEncoding {
+
+    static final String GZIP = "gzip";
+    static final String DEFLATE = "deflate";
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private TemplateContentEncoding() {
+    }
+
+    /**
+     * @param acceptEncoding
+     *            - Accept-Encoding header of the request, may be null
+     * @return {@link #GZIP}, {@link #DEFLATE} or null for identity
+     */
+    static String negotiate(String acceptEncoding) {
+	if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+	    return null;
+	}
+	float gzip = -1;
+	float deflate = -1;
+	float any = -1;
+	for (String part : acceptEncoding.split(",")) {
+	    int semicolon = part.indexOf(';');
+	    String coding = (semicolon < 0 ? part : part.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+	    float quality = semicolon < 0 ? 1 : getQuality(part.substring(semicolon + 1));
+	    if (GZIP.equals(coding) || "x-gzip".equals(coding)) {
+		gzip = quality;
+	    } else if (DEFLATE.equals(coding)) {
+		deflate = quality;
+	    } else if ("*".equals(coding)) {
+		any = quality;
+	    }
+	}
+	// codings not listed get the quality of *
+	if (gzip < 0) {
+	    gzip = any;
+	}
+	if (deflate < 0) {
+	    deflate = any;
+	}
+	if (gzip > 0 && gzip >= deflate) {
+	    return GZIP;
+	}
+	return deflate > 0 ? DEFLATE : null;
+    }
+
+    private static float getQuality(String params) {
+	for (String param : params.split(";")) {
+	    String trimmed = param.trim();
+	    if (trimmed.startsWith("q=") || trimmed.startsWith("Q=")) {
+		try {
+		    return Float.parseFloat(trimmed.substring(2).trim());
+		} catch (NumberFormatException e) {
+		    return 0;
+		}
+	    }
+	}
+	return 1;
+    }
+
+    /**
+     * @param body
+     * @param encoding
+     *            - {@link #GZIP} or {@link #DEFLATE}
+     * @return the body in the content coding
+     */
+    static byte[] encode(byte[] body, String encoding) {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+	try (OutputStream out = encode(bytes, encoding)) {
+	    out.write(body);
+	} catch (IOException e) {
+	    // not thrown by ByteArrayOutputStream
+	    throw new IllegalStateException(e);
+	}
+	return bytes.toByteArray();
+    }
+
+    /**
+     * Returns a stream compressing into the output. Flushing it does not flush the compressor, so the
+     * compression ratio does not depend on how often the writer flushes. Closing it finishes the
+     * content coding and closes the output.
+     *
+     * @param output
+     * @param encoding
+     *            - {@link #GZIP} or {@link #DEFLATE}
+     * @return compressing stream
+     * @throws IOException
+     */
+    static OutputStream encode(OutputStream output, String encoding) throws IOException {
+	final int level = TemplateEnquiryConfig.COMPRESSION_LEVEL;
+	if (GZIP.equals(encoding)) {
+	    return new GZIPOutputStream(output, BUFFER_SIZE) {
+		{
+		    def.setLevel(level);
+		}
+	    };
+	}
+	if (DEFLATE.equals(encoding)) {
+	    // the deflate coding is the zlib format
+	    return new DeflaterOutputStream(output, new Deflater(level), BUFFER_SIZE) {
+		@Override
+		public void close() throws IOException {
+		    try {
+			super.close();
+		    } finally {
+			def.end();
+		    }
+		}
+	    };
+	}
+	throw new IllegalArgumentException("Unsupported content coding " + encoding);
+    }
+}
@@ -0,0 +1,582 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.common.util.NtfUtils;
+
+/**
+ * Immutable view of all templates and notifications read from the DataAccessEnablerInterface,
+ * together with the notification index used by the template join.<br>
+ * The revision is only incremented when a reload returns different data, so two snapshots with the
+ * same revision carry the same templates and notifications. Every applicationId also has the
+ * revision its templates or notifications last changed in, so results of applicationIds that did
+ * not change stay valid across revisions, and a snapshot knows the (appId, templateId) keys that
+ * changed against the snapshot it was derived from.<br>
+ * Revisions are counted per node. The content hash of the data, in total and per applicationId, is
+ * the same on every node holding the same templates and notifications.
+ */
+final class TemplateDataSnapshot {
+
+    private final long revision;
+    private final long modifiedAt;
+    private final TemplateNotificationIndex notificationIndex;
+    private final OverlayMap<TemplateKey, List<Template>> groups;
+    private final int templateCount;
+    // revision of the last change per applicationId, applicationIds not contained have revision 0
+    private final OverlayMap<String, Long> appRevisions;
+    // sum of the record hashes per applicationId and in total, independent of the record order
+    private final OverlayMap<String, Long> appHashes;
+    private final long dataHash;
+    // keys whose templates or notifications differ from the previous snapshot
+    private final Set<TemplateKey> changedKeys;
+
+    // flat views, given for a loaded snapshot, built on first use for a snapshot with changes applied
+    private List<Template> templates;
+    private List<Notification> notifications;
+    private List<List<Template>> templateGroups;
+    private TemplateCategoryIndex categoryIndex;
+    // positions in templateGroups of the groups of every applicationId, built on first use
+    private Map<String, int[]> appGroups;
+
+    TemplateDataSnapshot(long revision, long modifiedAt, List<Template> templates, List<Notification> notifications) {
+	this(revision, modifiedAt, templates, notifications, null);
+    }
+
+    /**
+     * @param previous
+     *            - snapshot the data was reloaded after, applicationIds with unchanged data keep
+     *            their revision, null to set the revision for all applicationIds
+     */
+    private TemplateDataSnapshot(long revision, long modifiedAt, List<Template> templates,
+	    List<Notification> notifications, TemplateDataSnapshot previous) {
+	this.revision = revision;
+	this.modifiedAt = modifiedAt;
+	// copy, the DAE may hand out its internal lists
+	this.templates = templates == null ? Collections.<Template> emptyList()
+		: Collections.unmodifiableList(new ArrayList<>(templates));
+	this.notifications = notifications == null ? Collections.<Notification> emptyList()
+		: Collections.unmodifiableList(new ArrayList<>(notifications));
+	this.notificationIndex = TemplateNotificationIndex.build(this.notifications);
+	this.groups = OverlayMap.of(groupTemplates(this.templates));
+	this.templateCount = this.templates.size();
+	this.templateGroups = Collections.unmodifiableList(new ArrayList<>(groups.toMap().values()));
+	this.categoryIndex = TemplateCategoryIndex.build(this.templates, this.notifications, notificationIndex);
+	this.changedKeys = previous == null ? Collections.<TemplateKey> emptySet() : changedKeys(previous);
+	this.appRevisions = previous == null ? OverlayMap.of(allAppRevisions(revision))
+		: previous.appRevisions.with(changedAppRevisions(changedKeys));
+	Map<String, Long> hashes = new HashMap<>();
+	long total = 0;
+	for (Template template : this.templates) {
+	    total += addHash(hashes, appIdOf(TemplateKey.of(template)), hashOf(template));
+	}
+	for (Notification notification : this.notifications) {
+	    total += addHash(hashes, appIdOf(TemplateKey.of(notification)), hashOf(notification));
+	}
+	this.appHashes = OverlayMap.of(hashes);
+	this.dataHash = total;
+    }
+
+    private TemplateDataSnapshot(long revision, long modifiedAt, TemplateNotificationIndex notificationIndex,
+	    OverlayMap<TemplateKey, List<Template>> groups, int templateCount,
+	    OverlayMap<String, Long> previousAppRevisions, Set<TemplateKey> changedKeys,
+	    OverlayMap<String, Long> appHashes, long dataHash) {
+	this.revision = revision;
+	this.modifiedAt = modifiedAt;
+	this.notificationIndex = notificationIndex;
+	this.groups = groups;
+	this.templateCount = templateCount;
+	this.changedKeys = changedKeys;
+	this.appRevisions = previousAppRevisions.with(changedAppRevisions(changedKeys));
+	this.appHashes = appHashes;
+	this.dataHash = dataHash;
+    }
+
+    private static long addHash(Map<String, Long> hashes, String appId, long hash) {
+	Long current = hashes.get(appId);
+	hashes.put(appId, current == null ? hash : current + hash);
+	return hash;
+    }
+
+    // hashes of the fields the rows are built from
+    private static long hashOf(Template template) {
+	return TemplateEntityTag.hash(NtfUtils.safeToString(template.getAppId()) + '\u0000'
+		+ NtfUtils.safeToString(template.getTemplateId()) + '\u0000'
+		+ NtfUtils.safeToString(template.getTemplateName()) + '\u0000'
+		+ NtfUtils.safeToString(template.getDescription()));
+    }
+
+    private static long hashOf(Notification notification) {
+	return TemplateEntityTag.hash(NtfUtils.safeToString(notification.getAppId()) + '\u0000'
+		+ NtfUtils.safeToString(notification.getTemplateId()) + '\u0000'
+		+ NtfUtils.safeToString(notification.getCategory()) + '\u0000'
+		+ NtfUtils.safeToString(notification.getSchemaVersion()));
+    }
+
+    private static long hashOf(List<?> records) {
+	long hash = 0;
+	if (records != null) {
+	    for (Object record : records) {
+		hash += record instanceof Template ? hashOf((Template) record) : hashOf((Notification) record);
+	    }
+	}
+	return hash;
+    }
+
+    private static Map<TemplateKey, List<Template>> groupTemplates(List<Template> templates) {
+	Map<TemplateKey, List<Template>> groups = new LinkedHashMap<>();
+	for (Template template : templates) {
+	    TemplateKey key = TemplateKey.of(template);
+	    List<Template> group = groups.get(key);
+	    if (group == null) {
+		group = new ArrayList<>(1);
+		groups.put(key, group);
+	    }
+	    group.add(template);
+	}
+	return groups;
+    }
+
+    private Map<String, Long> allAppRevisions(long appRevision) {
+	Map<String, Long> revisions = new HashMap<>();
+	for (TemplateKey key : groups.toMap().keySet()) {
+	    revisions.put(appIdOf(key), appRevision);
+	}
+	for (TemplateKey key : notificationIndex.getTemplateKeys()) {
+	    revisions.put(appIdOf(key), appRevision);
+	}
+	return revisions;
+    }
+
+    private Set<TemplateKey> changedKeys(TemplateDataSnapshot previous) {
+	Set<TemplateKey> keys = new HashSet<>(groups.toMap().keySet());
+	keys.addAll(previous.groups.toMap().keySet());
+	keys.addAll(notificationIndex.getTemplateKeys());
+	keys.addAll(previous.notificationIndex.getTemplateKeys());
+	Set<TemplateKey> changed = new HashSet<>();
+	for (TemplateKey key : keys) {
+	    if (!sameGroup(groups.get(key), previous.groups.get(key))
+		    || !sameNotifications(notificationIndex.lookup(key), previous.notificationIndex.lookup(key))) {
+		changed.add(key);
+	    }
+	}
+	return Collections.unmodifiableSet(changed);
+    }
+
+    private Map<String, Long> changedAppRevisions(Set<TemplateKey> keys) {
+	Map<String, Long> revisions = new HashMap<>();
+	for (TemplateKey key : keys) {
+	    revisions.put(appIdOf(key), revision);
+	}
+	return revisions;
+    }
+
+    private static String appIdOf(TemplateKey key) {
+	return NtfUtils.safeToString(key.getAppId());
+    }
+
+    // the records of a key compare without their order, which a reload may change
+    private static boolean sameGroup(List<Template> group, List<Template> other) {
+	if (group == null || other == null) {
+	    return group == other;
+	}
+	return group.size() == other.size() && (group.equals(other) || sameRecords(group, other));
+    }
+
+    private static boolean sameNotifications(List<Notification> notifications, List<Notification> other) {
+	return notifications.size() == other.size()
+		&& (notifications.equals(other) || sameRecords(notifications, other));
+    }
+
+    private static <T> boolean sameRecords(List<T> records, List<T> other) {
+	Map<T, Integer> counts = new HashMap<>();
+	for (T record : records) {
+	    Integer count = counts.get(record);
+	    counts.put(record, count == null ? 1 : count + 1);
+	}
+	for (T record : other) {
+	    Integer count = counts.get(record);
+	    if (count == null) {
+		return false;
+	    }
+	    if (count == 1) {
+		counts.remove(record);
+	    } else {
+		counts.put(record, count - 1);
+	    }
+	}
+	return counts.isEmpty();
+    }
+
+    /**
+     * Returns the snapshot of reloaded data. Only the applicationIds whose templates or notifications
+     * differ from this snapshot get the new revision.
+     *
+     * @param newRevision
+     * @param newModifiedAt
+     * @param newTemplates
+     * @param newNotifications
+     * @return snapshot of the reloaded data
+     */
+    TemplateDataSnapshot reloaded(long newRevision, long newModifiedAt, List<Template> newTemplates,
+	    List<Notification> newNotifications) {
+	return new TemplateDataSnapshot(newRevision, newModifiedAt, newTemplates, newNotifications, this);
+    }
+
+    /**
+     * Returns the snapshot with changes of single records applied. Only the groups, index entries and
+     * applicationId revisions of the changed (appId, templateId) keys are built, everything else is
+     * shared with this snapshot, so a batch costs in proportion to its changes. A changed key keeps
+     * its position, a new key goes last.
+     *
+     * @param newRevision
+     * @param newModifiedAt
+     * @param changes
+     *            - changes in the order they happened
+     * @return snapshot with the changes
+     */
+    TemplateDataSnapshot withChanges(long newRevision, long newModifiedAt, List<TemplateChange> changes) {
+	Map<TemplateKey, List<Template>> changedGroups = new LinkedHashMap<>();
+	Map<TemplateKey, List<Notification>> changedNotifications = new LinkedHashMap<>();
+	int newTemplateCount = templateCount;
+	for (TemplateChange change : changes) {
+	    TemplateKey key = change.getKey();
+	    if (change.getTemplate() != null) {
+		List<Template> current = changedGroups.containsKey(key) ? changedGroups.get(key) : groups.get(key);
+		List<Template> updated = applyTemplateChange(current, change);
+		newTemplateCount += size(updated) - size(current);
+		changedGroups.put(key, updated);
+	    } else {
+		List<Notification> current = changedNotifications.get(key);
+		if (current == null) {
+		    current = notificationIndex.lookup(key);
+		}
+		changedNotifications.put(key, applyNotificationChange(current, change));
+	    }
+	}
+
+	Set<TemplateKey> newChangedKeys = new HashSet<>(changedGroups.keySet());
+	newChangedKeys.addAll(changedNotifications.keySet());
+
+	// only the hashes of the changed keys are replaced
+	Map<String, Long> hashDeltas = new HashMap<>();
+	long dataHashDelta = 0;
+	for (Map.Entry<TemplateKey, List<Template>> entry : changedGroups.entrySet()) {
+	    dataHashDelta += addHash(hashDeltas, appIdOf(entry.getKey()),
+		    hashOf(entry.getValue()) - hashOf(groups.get(entry.getKey())));
+	}
+	for (Map.Entry<TemplateKey, List<Notification>> entry : changedNotifications.entrySet()) {
+	    dataHashDelta += addHash(hashDeltas, appIdOf(entry.getKey()),
+		    hashOf(entry.getValue()) - hashOf(notificationIndex.lookup(entry.getKey())));
+	}
+	Map<String, Long> changedAppHashes = new HashMap<>();
+	for (Map.Entry<String, Long> entry : hashDeltas.entrySet()) {
+	    Long current = appHashes.get(entry.getKey());
+	    changedAppHashes.put(entry.getKey(), (current == null ? 0 : current) + entry.getValue());
+	}
+
+	return new TemplateDataSnapshot(newRevision, newModifiedAt,
+		notificationIndex.withNotifications(changedNotifications), groups.with(changedGroups),
+		newTemplateCount, appRevisions, Collections.unmodifiableSet(newChangedKeys),
+		appHashes.with(changedAppHashes), dataHash + dataHashDelta);
+    }
+
+    private static int size(List<?> list) {
+	return list == null ? 0 : list.size();
+    }
+
+    /*
+     * The templates of a key are told apart by their name, a change replaces or deletes the template
+     * of its name and the other templates of the group stay. A template of a new name is appended, a
+     * delete of a name not present changes nothing. Returns null for an empty group.
+     */
+    private static List<Template> applyTemplateChange(List<Template> current, TemplateChange change) {
+	Template changed = change.getTemplate();
+	if (current == null || current.isEmpty()) {
+	    return change.isDelete() ? null : Collections.singletonList(changed);
+	}
+	String name = NtfUtils.safeToString(changed.getTemplateName());
+	int position = -1;
+	for (int i = 0; i < current.size() && position < 0; i++) {
+	    if (Objects.equals(name, NtfUtils.safeToString(current.get(i).getTemplateName()))) {
+		position = i;
+	    }
+	}
+	if (position < 0 && change.isDelete()) {
+	    return current;
+	}
+	List<Template> updated = new ArrayList<>(current);
+	if (position < 0) {
+	    updated.add(changed);
+	} else if (change.isDelete()) {
+	    updated.remove(position);
+	} else {
+	    updated.set(position, changed);
+	}
+	return updated.isEmpty() ? null : Collections.unmodifiableList(updated);
+    }
+
+    // a notification is identified by its category within its (appId, templateId)
+    private static List<Notification> applyNotificationChange(List<Notification> current, TemplateChange change) {
+	Notification changed = change.getNotification();
+	String category = NtfUtils.safeToString(changed.getCategory());
+	List<Notification> updated = new ArrayList<>(current.size() + 1);
+	boolean replaced = false;
+	for (Notification notification : current) {
+	    if (Objects.equals(category, NtfUtils.safeToString(notification.getCategory()))) {
+		if (!change.isDelete() && !replaced) {
+		    updated.add(changed);
+		    replaced = true;
+		}
+	    } else {
+		updated.add(notification);
+	    }
+	}
+	if (!change.isDelete() && !replaced) {
+	    updated.add(changed);
+	}
+	return updated;
+    }
+
+    /**
+     * @return revision of the data, incremented on every change
+     */
+    long getRevision() {
+	return revision;
+    }
+
+    /**
+     * @param query
+     * @return revision of the data of the query: the latest revision of its applicationIds, or the
+     *         snapshot revision for all applicationIds
+     */
+    long getRevision(TemplateQuery query) {
+	if (query.isAllApps()) {
+	    return revision;
+	}
+	long latest = 0;
+	for (String appId : query.getAppIds()) {
+	    Long appRevision = appRevisions.get(appId);
+	    if (appRevision != null && appRevision > latest) {
+		latest = appRevision;
+	    }
+	}
+	return latest;
+    }
+
+    /**
+     * @return hash of all templates and notifications
+     */
+    long getDataHash() {
+	return dataHash;
+    }
+
+    /**
+     * @param query
+     * @return hash of the templates and notifications of the query: those of its applicationIds, or
+     *         all for all applicationIds
+     */
+    long getDataHash(TemplateQuery query) {
+	if (query.isAllApps()) {
+	    return dataHash;
+	}
+	long hash = 0;
+	for (String appId : query.getAppIds()) {
+	    Long appHash = appHashes.get(appId);
+	    if (appHash != null) {
+		hash += appHash;
+	    }
+	}
+	return hash;
+    }
+
+    /**
+     * @return time in ms the data of this revision was read
+     */
+    long getModifiedAt() {
+	return modifiedAt;
+    }
+
+    // true for a snapshot of loaded lists, whose flat views are given
+    private synchronized boolean isLoaded() {
+	return templates != null && notifications != null;
+    }
+
+    /**
+     * @return all templates, grouped by (appId, templateId) for a snapshot with changes applied
+     */
+    synchronized List<Template> getTemplates() {
+	if (templates == null) {
+	    List<Template> list = new ArrayList<>(templateCount);
+	    for (List<Template> group : getTemplateGroups()) {
+		list.addAll(group);
+	    }
+	    templates = Collections.unmodifiableList(list);
+	}
+	return templates;
+    }
+
+    /**
+     * @return number of templates, without building the template list
+     */
+    int getTemplateCount() {
+	return templateCount;
+    }
+
+    /**
+     * @return all notifications, grouped by (appId, templateId) for a snapshot with changes applied
+     */
+    synchronized List<Notification> getNotifications() {
+	if (notifications == null) {
+	    notifications = Collections.unmodifiableList(notificationIndex.getNotifications());
+	}
+	return notifications;
+    }
+
+    TemplateNotificationIndex getNotificationIndex() {
+	return notificationIndex;
+    }
+
+    synchronized TemplateCategoryIndex getCategoryIndex() {
+	if (categoryIndex == null) {
+	    categoryIndex = TemplateCategoryIndex.build(getTemplates(), getNotifications(), notificationIndex);
+	}
+	return categoryIndex;
+    }
+
+    /**
+     * @return (appId, templateId) keys whose templates or notifications changed against the snapshot
+     *         this one was derived from, empty for the first snapshot
+     */
+    Set<TemplateKey> getChangedKeys() {
+	return changedKeys;
+    }
+
+    /**
+     * @param key
+     * @return templates of the (appId, templateId), null if there are none
+     */
+    List<Template> getTemplateGroup(TemplateKey key) {
+	return groups.get(key);
+    }
+
+    /**
+     * @return the templates grouped by (appId, templateId), in order of the first template of each
+     *         group
+     */
+    synchronized List<List<Template>> getTemplateGroups() {
+	if (templateGroups == null) {
+	    templateGroups = Collections.unmodifiableList(new ArrayList<>(groups.toMap().values()));
+	}
+	return templateGroups;
+    }
+
+    /**
+     * @param appIds
+     *            - applicationIds, '*' is not expanded
+     * @return the templates of the applicationIds, in the order of {@link #getTemplateGroups()}, so
+     *         they are joined as the pages of the applicationIds are
+     */
+    List<Template> getTemplatesOfApps(Collection<String> appIds) {
+	List<List<Template>> allGroups = getTemplateGroups();
+	Map<String, int[]> positionsByApp = getAppGroups();
+	int count = 0;
+	List<int[]> found = new ArrayList<>(appIds.size());
+	for (String appId : new HashSet<>(appIds)) {
+	    int[] positions = positionsByApp.get(appId);
+	    if (positions != null) {
+		found.add(positions);
+		count += positions.length;
+	    }
+	}
+	int[] all = new int[count];
+	int i = 0;
+	for (int[] positions : found) {
+	    System.arraycopy(positions, 0, all, i, positions.length);
+	    i += positions.length;
+	}
+	Arrays.sort(all);
+	List<Template> list = new ArrayList<>();
+	for (int position : all) {
+	    list.addAll(allGroups.get(position));
+	}
+	return list;
+    }
+
+    private synchronized Map<String, int[]> getAppGroups() {
+	if (appGroups == null) {
+	    List<List<Template>> allGroups = getTemplateGroups();
+	    Map<String, List<Integer>> lists = new HashMap<>();
+	    for (int position = 0; position < allGroups.size(); position++) {
+		String appId = NtfUtils.safeToString(allGroups.get(position).get(0).getAppId());
+		List<Integer> positions = lists.get(appId);
+		if (positions == null) {
+		    positions = new ArrayList<>();
+		    lists.put(appId, positions);
+		}
+		positions.add(position);
+	    }
+	    Map<String, int[]> map = new HashMap<>();
+	    for (Map.Entry<String, List<Integer>> entry : lists.entrySet()) {
+		int[] positions = new int[entry.getValue().size()];
+		for (int j = 0; j < positions.length; j++) {
+		    positions[j] = entry.getValue().get(j);
+		}
+		map.put(entry.getKey(), positions);
+	    }
+	    appGroups = map;
+	}
+	return appGroups;
+    }
+
+    /**
+     * Compares the records per (appId, templateId), the order of the lists is not compared as
+     * changes applied to a snapshot do not keep it.
+     *
+     * @param templates
+     * @param notifications
+     * @return true if this snapshot carries the same data
+     */
+    boolean hasSameData(List<Template> templates, List<Notification> notifications) {
+	if (isLoaded() && this.templates.equals(templates == null ? Collections.<Template> emptyList() : templates)
+		&& this.notifications
+			.equals(notifications == null ? Collections.<Notification> emptyList() : notifications)) {
+	    return true;
+	}
+	int notificationCount = notifications == null ? 0 : notifications.size();
+	if (size(templates) != templateCount || notificationCount != notificationIndex.size()) {
+	    return false;
+	}
+	if (templateCount > 0) {
+	    Map<TemplateKey, List<Template>> otherGroups = groupTemplates(templates);
+	    if (otherGroups.size() != groups.size()) {
+		return false;
+	    }
+	    for (Map.Entry<TemplateKey, List<Template>> entry : otherGroups.entrySet()) {
+		if (!sameGroup(groups.get(entry.getKey()), entry.getValue())) {
+		    return false;
+		}
+	    }
+	}
+	if (notificationCount > 0) {
+	    TemplateNotificationIndex otherIndex = TemplateNotificationIndex.build(notifications);
+	    for (TemplateKey key : otherIndex.getTemplateKeys()) {
+		if (!sameNotifications(notificationIndex.lookup(key), otherIndex.lookup(key))) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+    }
+}
@@ -0,0 +1,131 @@
+package com.ericsson.ntf.ext.webservices;
+
+/**
+ * Tunables of the template enquiry REST resources. All values are read once from system properties
+ * with the prefix {@value #PREFIX}.
+ */
+final class TemplateEnquiryConfig {
+
+    static final String PREFIX = "ntf.rest.templateEnquiry.";
+
+    // Interval of the background reload of the template/notification snapshot, 0 disables it
+    static final long SNAPSHOT_REFRESH_INTERVAL_MS = getLong("snapshot.refreshIntervalMs", 30000L);
+    // Interval of the background reload if the snapshot is kept up to date from change events
+    static final long SNAPSHOT_CONSISTENCY_CHECK_INTERVAL_MS = getLong("snapshot.consistencyCheckIntervalMs",
+	    600000L);
+
+    // Age after which a cached schema version entry is reloaded in the background
+    static final long SCHEMA_CACHE_REFRESH_AFTER_MS = getLong("schemaCache.refreshAfterMs", 60000L);
+    // Age after which a cached schema version entry is no longer served
+    static final long SCHEMA_CACHE_EXPIRE_AFTER_MS = getLong("schemaCache.expireAfterMs", 300000L);
+    // Maximum number of cached schemas
+    static final int SCHEMA_CACHE_MAX_SIZE = getInt("schemaCache.maxSize", 10000);
+
+    // Maximum number of cached serialized responses, 0 disables the response cache
+    static final int RESPONSE_CACHE_MAX_ENTRIES = getInt("responseCache.maxEntries", 1000);
+    // Maximum total size of the cached serialized responses
+    static final long RESPONSE_CACHE_MAX_BYTES = getLong("responseCache.maxBytes", 64L * 1024 * 1024);
+
+    // Size in bytes from which responses are compressed if the client accepts it, -1 disables compression
+    static final int COMPRESSION_MIN_BYTES = getInt("compression.minBytes", 1024);
+    // Deflate level of gzip and deflate responses, 1 (fastest) to 9 (smallest)
+    static final int COMPRESSION_LEVEL = getInt("compression.level", 6);
+
+    // Number of templates from which wildcard queries are streamed, -1 disables streaming. A streamed
+    // list is joined in chunks of join.parallelThreshold templates, each chunk in parallel
+    static final int STREAMING_MIN_TEMPLATES = getInt("streaming.minTemplates", 5000);
+
+    // Time a previous snapshot revision is kept for paged iterations after it was replaced or last
+    // read by a page, and the maximum number of previous revisions kept
+    static final long PAGING_RETAIN_MS = getLong("paging.retainMs", 10 * 60 * 1000L);
+    static final int PAGING_RETAINED_SNAPSHOTS = getInt("paging.retainedSnapshots", 64);
+    // Maximum page size, larger limits are reduced to it
+    static final int PAGING_MAX_LIMIT = getInt("paging.maxLimit", 1000);
+
+    // Number of snapshot revisions and changed keys the change log of the delta sync keeps
+    static final int DELTA_MAX_REVISIONS = getInt("deltaSync.maxRevisions", 1024);
+    static final int DELTA_MAX_KEYS = getInt("deltaSync.maxKeys", 100000);
+
+    // Number of distinct applicationId, category and version strings shared by the rows, 0 disables
+    static final int STRING_POOL_MAX_SIZE = getInt("stringPool.maxSize", 16384);
+
+    // Deadline of a schema service call and threads running the calls
+    static final long SCHEMA_CALL_TIMEOUT_MS = getLong("schemaService.callTimeoutMs", 2000L);
+    static final int SCHEMA_CALL_THREADS = getInt("schemaService.callThreads", 8);
+    // Consecutive failed schema service calls opening the circuit, and time it stays open
+    static final int SCHEMA_BREAKER_FAILURES = getInt("schemaService.breakerFailures", 5);
+    static final long SCHEMA_BREAKER_OPEN_MS = getLong("schemaService.breakerOpenMs", 30000L);
+    // Comma separated exception classes counting as schema service failures besides IOException
+    static final String SCHEMA_BREAKER_EXCEPTIONS = getString("schemaService.breakerExceptions",
+	    "org.apache.zookeeper.KeeperException$ConnectionLossException,"
+		    + "org.apache.zookeeper.KeeperException$SessionExpiredException,"
+		    + "org.apache.zookeeper.KeeperException$OperationTimeoutException");
+
+    // Warm-up when the template resources are created: join/serialization runs, time for reading the
+    // schema versions, and wait before a failed warm-up is repeated
+    static final boolean WARM_UP_ENABLED = getBoolean("warmUp.enabled", true);
+    static final int WARM_UP_ITERATIONS = getInt("warmUp.iterations", 3);
+    static final long WARM_UP_SCHEMA_TIMEOUT_MS = getLong("warmUp.schemaTimeoutMs", 60000L);
+    static final long WARM_UP_RETRY_MS = getLong("warmUp.retryMs", 5000L);
+
+    // Template requests per second and burst per applicationId and per client, 0 disables
+    static final int ADMISSION_APP_RATE = getInt("admission.appRatePerSecond", 0);
+    static final int ADMISSION_APP_BURST = getInt("admission.appBurst", 100);
+    static final int ADMISSION_CLIENT_RATE = getInt("admission.clientRatePerSecond", 0);
+    static final int ADMISSION_CLIENT_BURST = getInt("admission.clientBurst", 200);
+    // Request header naming the client, e.g. X-Forwarded-For behind a load balancer, empty for the
+    // remote address, and the trusted proxies appending to it, the client is the entry appended by the
+    // outermost one
+    static final String ADMISSION_CLIENT_ID_HEADER = getString("admission.clientIdHeader", "");
+    static final int ADMISSION_TRUSTED_PROXIES = getInt("admission.trustedProxies", 1);
+    // Responses of applicationId=* built concurrently, 0 disables the limit
+    static final int ADMISSION_MAX_EXPENSIVE = getInt("admission.maxConcurrentAllApps", 0);
+    // Token buckets kept per applicationId and per client
+    static final int ADMISSION_MAX_BUCKETS = getInt("admission.maxBuckets", 10000);
+
+    // Channel announcing template changes to the other nodes: none, loopback, udp or the name of a
+    // TemplateInvalidationChannel class, and the id of this node, derived from the process if empty
+    static final String CLUSTER_CHANNEL = getString("cluster.channel", "none");
+    static final String CLUSTER_NODE_ID = getString("cluster.nodeId", "");
+    // Group of the loopback channel, local host:port and peers host:port,.. of the udp channel
+    static final String CLUSTER_LOOPBACK_GROUP = getString("cluster.loopbackGroup", "default");
+    static final String CLUSTER_UDP_BIND = getString("cluster.udpBind", "127.0.0.1:9877");
+    static final String CLUSTER_UDP_PEERS = getString("cluster.udpPeers", "");
+    // Interval in ms the host names of the udp peers are resolved again in, for peers changing address
+    static final long CLUSTER_UDP_RESOLVE_MS = getLong("cluster.udpResolveMs", 30000);
+
+    // Time a suspended template request has to be answered in
+    static final long REQUEST_TIMEOUT_MS = getLong("request.timeoutMs", 10000L);
+    // Threads and queue length of the pool building the responses
+    static final int REQUEST_THREADS = getInt("executor.requestThreads", 16);
+    static final int REQUEST_QUEUE = getInt("executor.requestQueue", 256);
+    // Threads and queue length of the pool running concurrent DAE and schema lookups
+    static final int LOOKUP_THREADS = getInt("executor.lookupThreads", 32);
+    static final int LOOKUP_QUEUE = getInt("executor.lookupQueue", 1024);
+    // Threads of the fork-join pool building the rows of large joins, and the number of templates
+    // from which a join is built in parallel, 0 disables parallel joins. It is also the chunk size of
+    // streamed lists, 0 streams them one template group at a time
+    static final int JOIN_PARALLELISM = getInt("executor.joinParallelism",
+	    Runtime.getRuntime().availableProcessors());
+    static final int JOIN_PARALLEL_THRESHOLD = getInt("join.parallelThreshold", 5000);
+
+    private TemplateEnquiryConfig() {
+    }
+
+    static long getLong(String name, long defaultValue) {
+	return Long.getLong(PREFIX + name, defaultValue);
+    }
+
+    static int getInt(String name, int defaultValue) {
+	return Integer.getInteger(PREFIX + name, defaultValue);
+    }
+
+    static String getString(String name, String defaultValue) {
+	return System.getProperty(PREFIX + name, defaultValue);
+    }
+
+    static boolean getBoolean(String name, boolean defaultValue) {
+	String value = System.getProperty(PREFIX + name);
+	return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
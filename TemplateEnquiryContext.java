@@ -0,0 +1,211 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+
+/**
+ * State shared by the template REST resources that are backed by the same
+ * DataAccessEnablerInterface, so that the resources and the admin interface work on one snapshot of
+ * the data.<br>
+ * A context lives until it is removed, see {@link TemplateEnquiryContextListener}, which stops its
+ * threads and closes its cluster channel. The next resource of the DataAccessEnablerInterface gets a
+ * new context.
+ */
+final class TemplateEnquiryContext {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateEnquiryContext.class);
+
+    private static final Map<DataAccessEnablerInterface, TemplateEnquiryContext> CONTEXTS = new IdentityHashMap<>();
+
+    private final TemplateEnquiryMetrics metrics = new TemplateEnquiryMetrics();
+    private final TemplateChangeLog changeLog = new TemplateChangeLog(TemplateEnquiryConfig.DELTA_MAX_REVISIONS,
+	    TemplateEnquiryConfig.DELTA_MAX_KEYS);
+    private final TemplateSnapshotCache snapshotCache;
+    // class of the source the context was created with
+    private final Class<?> schemaVersionSourceClass;
+    private final GuardedSchemaVersionSource schemaVersionSource;
+    private final SchemaVersionCache schemaVersionCache;
+    private final TemplateResponseCache responseCache;
+    private final TemplateEnquiryExecutors executors;
+    private final TemplateClusterInvalidation clusterInvalidation;
+    private final TemplateRowJoin rowJoin = new TemplateRowJoin(this);
+    private final SingleFlight<String, byte[]> responseBuilds = new SingleFlight<>();
+    private final TemplateAdmissionControl admissionControl = new TemplateAdmissionControl(
+	    TemplateEnquiryConfig.ADMISSION_APP_RATE, TemplateEnquiryConfig.ADMISSION_APP_BURST,
+	    TemplateEnquiryConfig.ADMISSION_CLIENT_RATE, TemplateEnquiryConfig.ADMISSION_CLIENT_BURST,
+	    TemplateEnquiryConfig.ADMISSION_MAX_EXPENSIVE, TemplateEnquiryConfig.ADMISSION_MAX_BUCKETS,
+	    TemplateEnquiryConfig.ADMISSION_CLIENT_ID_HEADER, TemplateEnquiryConfig.ADMISSION_TRUSTED_PROXIES);
+
+    private final TemplateEnquiryWarmUp warmUp = new TemplateEnquiryWarmUp(this,
+	    TemplateEnquiryConfig.WARM_UP_ITERATIONS, TemplateEnquiryConfig.WARM_UP_SCHEMA_TIMEOUT_MS,
+	    TemplateEnquiryConfig.WARM_UP_RETRY_MS);
+
+    private TemplateEnquiryContext(DataAccessEnablerInterface dae, SchemaVersionSource schemaVersionSource) {
+	snapshotCache = new TemplateSnapshotCache(dae, metrics, changeLog,
+		dae instanceof ObservableDataAccessEnabler ? TemplateEnquiryConfig.SNAPSHOT_CONSISTENCY_CHECK_INTERVAL_MS
+			: TemplateEnquiryConfig.SNAPSHOT_REFRESH_INTERVAL_MS,
+		TemplateEnquiryConfig.PAGING_RETAIN_MS, TemplateEnquiryConfig.PAGING_RETAINED_SNAPSHOTS);
+	clusterInvalidation = TemplateClusterInvalidation.start(snapshotCache);
+	schemaVersionSourceClass = schemaVersionSource.getClass();
+	this.schemaVersionSource = new GuardedSchemaVersionSource(schemaVersionSource,
+		TemplateEnquiryConfig.SCHEMA_CALL_TIMEOUT_MS, TemplateEnquiryConfig.SCHEMA_CALL_THREADS,
+		TemplateEnquiryConfig.SCHEMA_BREAKER_FAILURES, TemplateEnquiryConfig.SCHEMA_BREAKER_OPEN_MS,
+		GuardedSchemaVersionSource.parseClassNames(TemplateEnquiryConfig.SCHEMA_BREAKER_EXCEPTIONS));
+	schemaVersionCache = new SchemaVersionCache(this.schemaVersionSource, metrics,
+		TemplateEnquiryConfig.SCHEMA_CACHE_REFRESH_AFTER_MS, TemplateEnquiryConfig.SCHEMA_CACHE_EXPIRE_AFTER_MS,
+		TemplateEnquiryConfig.SCHEMA_CACHE_MAX_SIZE);
+	responseCache = new TemplateResponseCache(TemplateEnquiryConfig.RESPONSE_CACHE_MAX_ENTRIES,
+		TemplateEnquiryConfig.RESPONSE_CACHE_MAX_BYTES);
+	executors = new TemplateEnquiryExecutors(TemplateEnquiryConfig.REQUEST_THREADS,
+		TemplateEnquiryConfig.REQUEST_QUEUE, TemplateEnquiryConfig.LOOKUP_THREADS,
+		TemplateEnquiryConfig.LOOKUP_QUEUE, TemplateEnquiryConfig.JOIN_PARALLELISM);
+    }
+
+    /**
+     * @param dae
+     * @return the context of the DataAccessEnablerInterface, created on first use
+     */
+    static synchronized TemplateEnquiryContext forDataAccessEnabler(DataAccessEnablerInterface dae) {
+	TemplateEnquiryContext context = CONTEXTS.get(dae);
+	if (context == null) {
+	    context = new TemplateEnquiryContext(dae, new NotifSchemaVersionSource());
+	    CONTEXTS.put(dae, context);
+	}
+	return context;
+    }
+
+    /**
+     * @param dae
+     * @param schemaVersionSource
+     *            - schema versions of a context created by this call, e.g. a stub in benchmarks. An
+     *            existing context keeps its source until it is removed.
+     * @return the context of the DataAccessEnablerInterface, created on first use
+     */
+    static synchronized TemplateEnquiryContext forDataAccessEnabler(DataAccessEnablerInterface dae,
+	    SchemaVersionSource schemaVersionSource) {
+	TemplateEnquiryContext context = CONTEXTS.get(dae);
+	if (context == null) {
+	    context = new TemplateEnquiryContext(dae, schemaVersionSource);
+	    CONTEXTS.put(dae, context);
+	} else if (context.schemaVersionSourceClass != schemaVersionSource.getClass()) {
+	    LOG.warn("Template enquiry context already uses schema versions of {}, {} is ignored until the "
+		    + "context is removed", context.schemaVersionSourceClass.getName(),
+		    schemaVersionSource.getClass().getName());
+	}
+	return context;
+    }
+
+    /**
+     * Stops the context of a DataAccessEnablerInterface and forgets it.
+     *
+     * @param dae
+     */
+    static void remove(DataAccessEnablerInterface dae) {
+	TemplateEnquiryContext context;
+	synchronized (TemplateEnquiryContext.class) {
+	    context = CONTEXTS.remove(dae);
+	}
+	if (context != null) {
+	    context.shutdown();
+	}
+    }
+
+    /**
+     * Stops and forgets all contexts, e.g. when the application is undeployed.
+     */
+    static void removeAll() {
+	List<TemplateEnquiryContext> contexts;
+	synchronized (TemplateEnquiryContext.class) {
+	    contexts = new ArrayList<>(CONTEXTS.values());
+	    CONTEXTS.clear();
+	}
+	for (TemplateEnquiryContext context : contexts) {
+	    context.shutdown();
+	}
+    }
+
+    private void shutdown() {
+	warmUp.stop();
+	if (clusterInvalidation != null) {
+	    clusterInvalidation.stop();
+	}
+	snapshotCache.shutdown();
+	schemaVersionCache.shutdown();
+	schemaVersionSource.shutdown();
+	executors.shutdown();
+	LOG.info("Template enquiry context stopped");
+    }
+
+    TemplateEnquiryMetrics getMetrics() {
+	return metrics;
+    }
+
+    TemplateChangeLog getChangeLog() {
+	return changeLog;
+    }
+
+    TemplateSnapshotCache getSnapshotCache() {
+	return snapshotCache;
+    }
+
+    GuardedSchemaVersionSource getSchemaVersionSource() {
+	return schemaVersionSource;
+    }
+
+    /**
+     * @return the announcement of template changes to the other nodes, null if no channel is
+     *         configured
+     */
+    TemplateClusterInvalidation getClusterInvalidation() {
+	return clusterInvalidation;
+    }
+
+    SchemaVersionCache getSchemaVersionCache() {
+	return schemaVersionCache;
+    }
+
+    TemplateResponseCache getResponseCache() {
+	return responseCache;
+    }
+
+    TemplateEnquiryExecutors getExecutors() {
+	return executors;
+    }
+
+    TemplateRowJoin getRowJoin() {
+	return rowJoin;
+    }
+
+    SingleFlight<String, byte[]> getResponseBuilds() {
+	return responseBuilds;
+    }
+
+    TemplateAdmissionControl getAdmissionControl() {
+	return admissionControl;
+    }
+
+    /**
+     * Starts the warm-up of the context once, called when a template resource is created.
+     *
+     * @param dae
+     *            - DataAccessEnablerInterface of the context
+     */
+    void startWarmUp(DataAccessEnablerInterface dae) {
+	if (TemplateEnquiryConfig.WARM_UP_ENABLED) {
+	    warmUp.start(dae);
+	} else {
+	    warmUp.skip();
+	}
+    }
+
+    TemplateEnquiryWarmUp getWarmUp() {
+	return warmUp;
+    }
+}
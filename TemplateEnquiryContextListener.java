@@ -0,0 +1,24 @@
+package com.ericsson.ntf.ext.webservices;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import javax.servlet.annotation.WebListener;
+
+/**
+ * Stops the template enquiry contexts when the web application is stopped or undeployed, so their
+ * threads and the cluster channel do not outlive it. Registered by the annotation, or as listener in
+ * the web.xml if annotation scanning is disabled.
+ */
+@WebListener
+public class TemplateEnquiryContextListener implements ServletContextListener {
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+	// contexts are created by the first resource of their DataAccessEnablerInterface
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+	TemplateEnquiryContext.removeAll();
+    }
+}
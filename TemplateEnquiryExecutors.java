@@ -0,0 +1,127 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinPool.ForkJoinWorkerThreadFactory;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded thread pools of the template enquiry.<br>
+ * The request pool builds the responses of suspended requests, a request is rejected when the pool
+ * and its queue are full. The lookup pool runs the concurrent DAE and schema lookups of a request, a
+ * lookup that does not fit runs on the calling thread. The pools are separate so that a request
+ * waiting for its lookups can not starve them.<br>
+ * The fork-join pool builds the rows of large joins in parallel.
+ */
+final class TemplateEnquiryExecutors {
+
+    private final ThreadPoolExecutor requestExecutor;
+    private final ThreadPoolExecutor lookupExecutor;
+    private final ForkJoinPool joinPool;
+
+    TemplateEnquiryExecutors(int requestThreads, int requestQueue, int lookupThreads, int lookupQueue,
+	    int joinParallelism) {
+	requestExecutor = newPool("ntf-template-request", requestThreads, requestQueue,
+		new ThreadPoolExecutor.AbortPolicy());
+	lookupExecutor = newPool("ntf-template-lookup", lookupThreads, lookupQueue,
+		new ThreadPoolExecutor.CallerRunsPolicy());
+	joinPool = new ForkJoinPool(Math.max(joinParallelism, 1), new ForkJoinWorkerThreadFactory() {
+	    private final AtomicInteger count = new AtomicInteger();
+
+	    @Override
+	    public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		t.setName("ntf-template-join-" + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	    }
+	}, null, false);
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int threads, int queue, RejectedExecutionHandler handler) {
+	ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+		new ArrayBlockingQueue<Runnable>(Math.max(queue, 1)), daemonThreads(name), handler);
+	pool.allowCoreThreadTimeOut(true);
+	return pool;
+    }
+
+    /**
+     * @param name
+     *            - prefix of the thread names
+     * @return factory of daemon threads
+     */
+    static ThreadFactory daemonThreads(final String name) {
+	return new ThreadFactory() {
+	    private final AtomicInteger count = new AtomicInteger();
+
+	    @Override
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	    }
+	};
+    }
+
+    ThreadPoolExecutor getRequestExecutor() {
+	return requestExecutor;
+    }
+
+    ThreadPoolExecutor getLookupExecutor() {
+	return lookupExecutor;
+    }
+
+    ForkJoinPool getJoinPool() {
+	return joinPool;
+    }
+
+    /**
+     * @param deadline
+     *            - System.nanoTime() the request has to be answered by
+     * @return true if the deadline has passed
+     */
+    static boolean isExpired(long deadline) {
+	return deadline - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Waits for a lookup until the request deadline.
+     *
+     * @param future
+     * @param deadline
+     *            - System.nanoTime() the request has to be answered by
+     * @return result of the lookup
+     * @throws TimeoutException
+     *             if the deadline passed
+     * @throws Exception
+     *             thrown by the lookup
+     */
+    static <T> T await(Future<T> future, long deadline) throws Exception {
+	try {
+	    return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+	} catch (ExecutionException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof Exception) {
+		throw (Exception) cause;
+	    }
+	    throw e;
+	} catch (TimeoutException e) {
+	    future.cancel(true);
+	    throw e;
+	}
+    }
+
+    void shutdown() {
+	requestExecutor.shutdownNow();
+	lookupExecutor.shutdownNow();
+	joinPool.shutdownNow();
+    }
+}
@@ -0,0 +1,181 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms of the stages of the template enquiry and counters of rows, DAE calls, schema
+ * lookups and error codes. The metrics are written in the Prometheus text exposition format.
+ */
+final class TemplateEnquiryMetrics {
+
+    // Stages
+    static final String STAGE_REQUEST = "request";
+    static final String STAGE_GET_ALL_TEMPLATE = "getAllTemplate";
+    static final String STAGE_GET_ALL_NOTIFICATION = "getAllNotification";
+    static final String STAGE_JOIN = "join";
+    static final String STAGE_SCHEMA_LOOKUP = "schemaLookup";
+    static final String STAGE_SERIALIZE = "serialize";
+
+    // DAE methods
+    static final String DAE_GET_ALL_TEMPLATE = "getAllTemplate";
+    static final String DAE_GET_ALL_NOTIFICATION = "getAllNotification";
+
+    private static final String PREFIX = "ntf_template_enquiry_";
+
+    // upper bounds of the exported histogram buckets in seconds
+    private static final String[] BUCKET_BOUNDS = { "0.0005", "0.001", "0.0025", "0.005", "0.01", "0.025", "0.05",
+	    "0.1", "0.25", "0.5", "1", "2.5", "5", "10" };
+
+    private final Map<String, LatencyHistogram> stages;
+    private final ConcurrentMap<String, LongAdder> daeCalls = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder schemaLookups = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> schemaFallbacks = new ConcurrentHashMap<>();
+    private final LongAdder schemaFailures = new LongAdder();
+
+    TemplateEnquiryMetrics() {
+	Map<String, LatencyHistogram> map = new LinkedHashMap<>();
+	for (String stage : new String[] { STAGE_REQUEST, STAGE_GET_ALL_TEMPLATE, STAGE_GET_ALL_NOTIFICATION,
+		STAGE_JOIN, STAGE_SCHEMA_LOOKUP, STAGE_SERIALIZE }) {
+	    map.put(stage, new LatencyHistogram());
+	}
+	stages = Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Records the time since the start of a stage.
+     *
+     * @param stage
+     *            - one of the STAGE_ constants
+     * @param startNanos
+     *            - System.nanoTime() at the start of the stage
+     */
+    void recordStage(String stage, long startNanos) {
+	stages.get(stage).record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @param stage
+     *            - one of the STAGE_ constants
+     * @return histogram of the stage
+     */
+    LatencyHistogram getStage(String stage) {
+	return stages.get(stage);
+    }
+
+    /**
+     * @param method
+     *            - one of the DAE_ constants
+     */
+    void countDaeCall(String method) {
+	increment(daeCalls, method);
+    }
+
+    void countRows(int count) {
+	rows.add(count);
+    }
+
+    void countSchemaLookup() {
+	schemaLookups.increment();
+    }
+
+    /**
+     * @param reason
+     *            - why the last known schema versions were served instead of reloaded ones
+     */
+    void countSchemaFallback(String reason) {
+	increment(schemaFallbacks, reason);
+    }
+
+    /**
+     * Counts a row left without schema versions as they could not be read
+     */
+    void countSchemaFailure() {
+	schemaFailures.increment();
+    }
+
+    /**
+     * @param errorCode
+     *            - error code of an error response
+     */
+    void countError(String errorCode) {
+	if (errorCode != null) {
+	    increment(errors, errorCode);
+	}
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counters, String name) {
+	LongAdder counter = counters.get(name);
+	if (counter == null) {
+	    LongAdder created = new LongAdder();
+	    counter = counters.putIfAbsent(name, created);
+	    if (counter == null) {
+		counter = created;
+	    }
+	}
+	counter.increment();
+    }
+
+    /**
+     * @return the metrics in the Prometheus text exposition format 0.0.4
+     */
+    String toPrometheusText() {
+	StringBuilder out = new StringBuilder(8192);
+
+	String name = PREFIX + "stage_duration_seconds";
+	out.append("# HELP ").append(name).append(" Duration of the stages of the template enquiry.\n");
+	out.append("# TYPE ").append(name).append(" histogram\n");
+	for (Map.Entry<String, LatencyHistogram> stage : stages.entrySet()) {
+	    LatencyHistogram.Snapshot snapshot = stage.getValue().snapshot();
+	    String label = "stage=\"" + escape(stage.getKey()) + "\"";
+	    for (String bound : BUCKET_BOUNDS) {
+		// a value near a bound may be counted in the next bucket, within the histogram precision
+		out.append(name).append("_bucket{").append(label).append(",le=\"").append(bound).append("\"} ")
+			.append(snapshot.getCountAtOrBelow((long) (Double.parseDouble(bound) * 1e9))).append('\n');
+	    }
+	    out.append(name).append("_bucket{").append(label).append(",le=\"+Inf\"} ").append(snapshot.getCount())
+		    .append('\n');
+	    out.append(name).append("_sum{").append(label).append("} ").append(snapshot.getSum() / 1e9).append('\n');
+	    out.append(name).append("_count{").append(label).append("} ").append(snapshot.getCount()).append('\n');
+	}
+
+	appendCounter(out, PREFIX + "rows_total", "Template rows produced.", rows.sum());
+	appendCounter(out, PREFIX + "schema_lookups_total", "Schema version lookups at the schema service.",
+		schemaLookups.sum());
+	appendCounters(out, PREFIX + "schema_fallbacks_total",
+		"Last known schema versions served as reloading them failed, by reason.", "reason", schemaFallbacks);
+	appendCounter(out, PREFIX + "schema_failures_total", "Rows without schema versions as reading them failed.",
+		schemaFailures.sum());
+	appendCounters(out, PREFIX + "dae_calls_total", "Calls of the DataAccessEnablerInterface.", "method",
+		daeCalls);
+	appendCounters(out, PREFIX + "errors_total", "Error responses by error code.", "code", errors);
+	return out.toString();
+    }
+
+    private static void appendCounter(StringBuilder out, String name, String help, long value) {
+	out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	out.append("# TYPE ").append(name).append(" counter\n");
+	out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendCounters(StringBuilder out, String name, String help, String labelName,
+	    Map<String, LongAdder> counters) {
+	out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+	out.append("# TYPE ").append(name).append(" counter\n");
+	for (Map.Entry<String, LongAdder> counter : new TreeMap<>(counters).entrySet()) {
+	    out.append(name).append('{').append(labelName).append("=\"").append(escape(counter.getKey()))
+		    .append("\"} ").append(counter.getValue().sum()).append('\n');
+	}
+    }
+
+    private static String escape(String labelValue) {
+	return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -0,0 +1,216 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jboss.resteasy.spi.ResteasyProviderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+
+/**
+ * Warm-up of a {@link TemplateEnquiryContext} after a start, so the first PAC requests do not pay
+ * for cold caches and interpreted code:
+ * <ul>
+ * <li>loads the template/notification snapshot from the DAE</li>
+ * <li>reads the schema versions of every appId_category of the snapshot</li>
+ * <li>runs the join of all templates of both resources and the serialization of the rows
+ * {@code iterations} times</li>
+ * </ul>
+ * A failed warm-up is repeated after {@code retryMs}. The context is ready once a warm-up
+ * completed, see {@link NtfTemplateAdminRest#getReadiness()}.
+ */
+final class TemplateEnquiryWarmUp {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateEnquiryWarmUp.class);
+
+    enum State {
+	NOT_STARTED, RUNNING, READY
+    }
+
+    private final TemplateEnquiryContext context;
+    private final int iterations;
+    private final long schemaTimeoutMs;
+    private final long retryMs;
+
+    // guarded by this
+    private State state = State.NOT_STARTED;
+    // guarded by this
+    private Thread thread;
+    private boolean stopped;
+    private volatile long startedAt;
+    private volatile long readyAt;
+    private volatile int attempts;
+    private volatile String lastFailure;
+
+    TemplateEnquiryWarmUp(TemplateEnquiryContext context, int iterations, long schemaTimeoutMs, long retryMs) {
+	this.context = context;
+	this.iterations = iterations;
+	this.schemaTimeoutMs = schemaTimeoutMs;
+	this.retryMs = retryMs;
+    }
+
+    /**
+     * Starts the warm-up in the background, unless it was already started.
+     *
+     * @param dae
+     *            - DataAccessEnablerInterface of the context
+     */
+    synchronized void start(final DataAccessEnablerInterface dae) {
+	if (state != State.NOT_STARTED || stopped) {
+	    return;
+	}
+	state = State.RUNNING;
+	startedAt = System.currentTimeMillis();
+	thread = TemplateEnquiryExecutors.daemonThreads("ntf-template-warmup").newThread(new Runnable() {
+	    @Override
+	    public void run() {
+		runUntilReady(dae);
+	    }
+	});
+	thread.start();
+    }
+
+    /**
+     * Stops a running warm-up, the context stays not ready, and prevents a later start.
+     */
+    synchronized void stop() {
+	stopped = true;
+	if (thread != null) {
+	    thread.interrupt();
+	    thread = null;
+	}
+    }
+
+    private synchronized boolean isStopped() {
+	return stopped;
+    }
+
+    /**
+     * Marks the context ready without a warm-up.
+     */
+    synchronized void skip() {
+	if (state == State.NOT_STARTED) {
+	    state = State.READY;
+	    readyAt = System.currentTimeMillis();
+	    notifyAll();
+	}
+    }
+
+    private void runUntilReady(DataAccessEnablerInterface dae) {
+	while (!Thread.currentThread().isInterrupted() && !isStopped()) {
+	    attempts++;
+	    try {
+		warmUp(dae);
+		synchronized (this) {
+		    state = State.READY;
+		    readyAt = System.currentTimeMillis();
+		    notifyAll();
+		}
+		LOG.info("Template enquiry warm-up completed in {} ms", readyAt - startedAt);
+		return;
+	    } catch (Exception e) {
+		lastFailure = e.toString();
+		LOG.warn("Template enquiry warm-up failed, retrying in {} ms", retryMs, e);
+	    }
+	    try {
+		Thread.sleep(retryMs);
+	    } catch (InterruptedException e) {
+		return;
+	    }
+	}
+    }
+
+    private void warmUp(DataAccessEnablerInterface dae) throws Exception {
+	TemplateRowJoin rowJoin = context.getRowJoin();
+	NtfTemplateRestExt legacyResource = new NtfTemplateRestExt(dae);
+
+	long start = System.nanoTime();
+	TemplateDataSnapshot snapshot = context.getSnapshotCache().get();
+	LOG.info("Warm-up loaded snapshot revision {} with {} templates in {} ms", snapshot.getRevision(),
+		snapshot.getTemplates().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+	start = System.nanoTime();
+	try {
+	    rowJoin.prefetchSchemaVersions(snapshot, snapshot.getTemplates(), null,
+		    start + TimeUnit.MILLISECONDS.toNanos(schemaTimeoutMs));
+	} catch (TimeoutException e) {
+	    // the remaining versions are read by the join
+	    LOG.warn("Warm-up did not read all schema versions within {} ms", schemaTimeoutMs);
+	}
+	LOG.info("Warm-up read the schema versions in {} ms, {} schemas cached",
+		TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), context.getSchemaVersionCache().size());
+
+	start = System.nanoTime();
+	TemplateJsonSerializer jsonSerializer = getJsonSerializer();
+	TemplateCborSerializer cborSerializer = new TemplateCborSerializer();
+	for (int i = 0; i < iterations; i++) {
+	    List<TemplateBase> rows = rowJoin.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null,
+		    NtfTemplateRestExtNew.VERSION_2);
+	    cborSerializer.serialize(rows);
+	    if (jsonSerializer != null) {
+		jsonSerializer.serialize(rows);
+	    }
+	    legacyResource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null, null);
+	    legacyResource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null, NtfTemplateRestExt.VERSION_3);
+	}
+	LOG.info("Warm-up ran the join and serialization {} times in {} ms", iterations,
+		TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * @return serializer with the JSON writers of the runtime, null if they are not available yet
+     */
+    private static TemplateJsonSerializer getJsonSerializer() {
+	try {
+	    return new TemplateJsonSerializer(ResteasyProviderFactory.getInstance());
+	} catch (Exception e) {
+	    LOG.debug("Warm-up skips the JSON serialization, no JSON writer available", e);
+	    return null;
+	}
+    }
+
+    synchronized State getState() {
+	return state;
+    }
+
+    boolean isReady() {
+	return getState() == State.READY;
+    }
+
+    /**
+     * @param timeoutMs
+     * @return true if the context is ready, waits up to the timeout for it
+     * @throws InterruptedException
+     */
+    synchronized boolean awaitReady(long timeoutMs) throws InterruptedException {
+	long deadline = System.currentTimeMillis() + timeoutMs;
+	while (state != State.READY) {
+	    long remaining = deadline - System.currentTimeMillis();
+	    if (remaining <= 0) {
+		return false;
+	    }
+	    wait(remaining);
+	}
+	return true;
+    }
+
+    long getStartedAt() {
+	return startedAt;
+    }
+
+    long getReadyAt() {
+	return readyAt;
+    }
+
+    int getAttempts() {
+	return attempts;
+    }
+
+    String getLastFailure() {
+	return lastFailure;
+    }
+}
@@ -0,0 +1,70 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import javax.ws.rs.core.EntityTag;
+
+/**
+ * Weak entity tags of template responses. A tag is derived from the content hash of the data, the
+ * hash of the schema versions and the normalized query, so it changes whenever the response content
+ * can change and can be computed without building the response.<br>
+ * The hashes depend on the content only, so every node of a cluster and every run of a node gives
+ * the same tag for the same data. Nodes may order the rows differently, so the tags are weak.
+ */
+final class TemplateEntityTag {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private TemplateEntityTag() {
+    }
+
+    /**
+     * @param dataHash
+     *            - content hash of the snapshot data the response is built from
+     * @param schemaHash
+     *            - hash of the schema versions the response is built from, 0 if it uses no schema
+     *            versions
+     * @param queryKey
+     *            - normalized query including the endpoint
+     * @return weak entity tag
+     */
+    static EntityTag of(long dataHash, long schemaHash, String queryKey) {
+	return new EntityTag(Long.toHexString(dataHash) + '-' + Long.toHexString(schemaHash) + '-'
+		+ Long.toHexString(hash(queryKey)), true);
+    }
+
+    /**
+     * @param tag
+     * @return value of the ETag header for the tag
+     */
+    static String toHeaderValue(EntityTag tag) {
+	return (tag.isWeak() ? "W/\"" : "\"") + tag.getValue() + '"';
+    }
+
+    /**
+     * @param snapshot
+     * @param schemaChangedAt
+     *            - time in ms the schema versions last changed, 0 if the response uses no schema
+     *            versions
+     * @return last modification time of a response built from the snapshot
+     */
+    static Date lastModified(TemplateDataSnapshot snapshot, long schemaChangedAt) {
+	// HTTP dates have a resolution of seconds
+	return new Date(Math.max(snapshot.getModifiedAt(), schemaChangedAt) / 1000 * 1000);
+    }
+
+    /**
+     * @param key
+     * @return 64 bit FNV-1a hash of the UTF-8 bytes of the key
+     */
+    static long hash(String key) {
+	long h = FNV_OFFSET;
+	for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+	    h ^= b & 0xff;
+	    h *= FNV_PRIME;
+	}
+	return h;
+    }
+}
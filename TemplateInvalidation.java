@@ -0,0 +1,102 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Announcement of a node that the template data changed, sent over a
+ * {@link TemplateInvalidationChannel}. The clock is the Lamport clock of the sending node, it is
+ * increasing per node within the epoch of the node, the time its process started sending, so a
+ * receiver can tell an announcement it has not seen yet from a repeated or late one, also after the
+ * node restarted with the same id. The revision is the local snapshot revision of the sender, for
+ * logging only.
+ */
+public final class TemplateInvalidation {
+
+    private static final String FORMAT_VERSION = "2";
+    // announcements without epoch
+    private static final String FORMAT_VERSION_1 = "1";
+
+    private final String nodeId;
+    private final long epoch;
+    private final long clock;
+    private final long revision;
+
+    /**
+     * Announcement of epoch 0
+     */
+    public TemplateInvalidation(String nodeId, long clock, long revision) {
+	this(nodeId, 0, clock, revision);
+    }
+
+    public TemplateInvalidation(String nodeId, long epoch, long clock, long revision) {
+	this.nodeId = nodeId;
+	this.epoch = epoch;
+	this.clock = clock;
+	this.revision = revision;
+    }
+
+    public String getNodeId() {
+	return nodeId;
+    }
+
+    public long getEpoch() {
+	return epoch;
+    }
+
+    public long getClock() {
+	return clock;
+    }
+
+    public long getRevision() {
+	return revision;
+    }
+
+    /**
+     * @return the announcement as bytes, e.g. for a datagram
+     */
+    public byte[] encode() {
+	return (FORMAT_VERSION + ':' + epoch + ':' + clock + ':' + revision + ':' + nodeId)
+		.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param data
+     * @param offset
+     * @param length
+     * @return the decoded announcement
+     * @throws IllegalArgumentException
+     *             if the data is no announcement
+     */
+    public static TemplateInvalidation decode(byte[] data, int offset, int length) {
+	String text = new String(data, offset, length, StandardCharsets.UTF_8);
+	if (text.startsWith(FORMAT_VERSION_1 + ':')) {
+	    // sent by a node of an earlier version
+	    String[] parts = text.split(":", 4);
+	    if (parts.length != 4 || parts[3].isEmpty()) {
+		throw new IllegalArgumentException("not a template invalidation");
+	    }
+	    return new TemplateInvalidation(parts[3], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+	}
+	String[] parts = text.split(":", 5);
+	if (parts.length != 5 || !FORMAT_VERSION.equals(parts[0]) || parts[4].isEmpty()) {
+	    throw new IllegalArgumentException("not a template invalidation");
+	}
+	return new TemplateInvalidation(parts[4], Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+		Long.parseLong(parts[3]));
+    }
+
+    /**
+     * @param other
+     *            - announcement of the same node
+     * @return true if this announcement was sent after the other one: in a later epoch, or in the
+     *         same epoch with a higher clock
+     */
+    boolean isAfter(TemplateInvalidation other) {
+	return epoch != other.epoch ? epoch > other.epoch : clock > other.clock;
+    }
+
+    @Override
+    public String toString() {
+	return nodeId + "@" + epoch + "." + clock + " (revision " + revision + ")";
+    }
+}
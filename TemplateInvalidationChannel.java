@@ -0,0 +1,49 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+
+/**
+ * Channel broadcasting {@link TemplateInvalidation}s between the nodes serving the template
+ * resources, so every node reloads its template data when one node sees a change.<br>
+ * The channel of a node is chosen by the {@code cluster.channel} property: {@code loopback} for
+ * {@link LoopbackInvalidationChannel}, {@code udp} for {@link UdpInvalidationChannel} or the name of
+ * a class implementing this interface with a public no-argument constructor. Delivery may be
+ * unreliable, the periodic snapshot reload still picks up a lost change.
+ */
+public interface TemplateInvalidationChannel {
+
+    /**
+     * Receiver of the announcements of the other nodes
+     */
+    interface Listener {
+	/**
+	 * Called for every received announcement, must not block.
+	 *
+	 * @param invalidation
+	 */
+	void invalidated(TemplateInvalidation invalidation);
+    }
+
+    /**
+     * Starts the delivery of announcements to the listener.
+     *
+     * @param listener
+     * @throws IOException
+     *             if the channel can not be opened
+     */
+    void open(Listener listener) throws IOException;
+
+    /**
+     * Sends an announcement to the other nodes.
+     *
+     * @param invalidation
+     * @throws IOException
+     *             if sending failed
+     */
+    void publish(TemplateInvalidation invalidation) throws IOException;
+
+    /**
+     * Stops the delivery and releases the channel.
+     */
+    void close();
+}
@@ -0,0 +1,134 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+
+import org.jboss.resteasy.specimpl.MultivaluedMapImpl;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.Template_v2;
+
+/**
+ * Serializes template rows to JSON with the MessageBodyWriter the JAX-RS runtime would use for the
+ * same entity, so that the bytes are identical to a response carrying the row list itself. A list
+ * can also be written element by element to a stream.<br>
+ * The writers are resolved when the serializer is created, so it can be created on a request thread
+ * and used from any thread afterwards.
+ */
+final class TemplateJsonSerializer implements TemplateRowSerializer {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    @SuppressWarnings("rawtypes")
+    private final MessageBodyWriter listWriter;
+    @SuppressWarnings("rawtypes")
+    private final MessageBodyWriter rowWriter;
+
+    /**
+     * @param providers
+     *            - JAX-RS providers of the request
+     * @throws IOException
+     *             if there is no JSON writer for the rows
+     */
+    TemplateJsonSerializer(Providers providers) throws IOException {
+	// same type information the runtime derives from a plain (non generic) entity
+	listWriter = providers.getMessageBodyWriter(ArrayList.class, ArrayList.class, NO_ANNOTATIONS,
+		MediaType.APPLICATION_JSON_TYPE);
+	rowWriter = providers.getMessageBodyWriter(Template_v2.class, Template_v2.class, NO_ANNOTATIONS,
+		MediaType.APPLICATION_JSON_TYPE);
+	if (listWriter == null || rowWriter == null) {
+	    throw new IOException("No JSON writer for template rows");
+	}
+    }
+
+    /**
+     * @param rows
+     *            - rows to serialize
+     * @return UTF-8 JSON
+     * @throws IOException
+     *             if writing fails
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(List<?> rows) throws IOException {
+	ArrayList<?> list = rows instanceof ArrayList ? (ArrayList<?>) rows : new ArrayList<>(rows);
+	ByteArrayOutputStream out = new ByteArrayOutputStream(256 + list.size() * 256);
+	listWriter.writeTo(list, ArrayList.class, ArrayList.class, NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+		new MultivaluedMapImpl<String, Object>(), out);
+	return out.toByteArray();
+    }
+
+    /**
+     * Starts writing a JSON array of rows to a stream.
+     *
+     * @param out
+     *            - stream to write to, it is not closed
+     * @return writer of the array elements
+     */
+    @Override
+    public ArrayWriter openArray(OutputStream out) {
+	return new JsonArrayWriter(out);
+    }
+
+    /**
+     * Writer of a JSON array element by element, the elements are serialized by the same
+     * MessageBodyWriter as the elements of a serialized list.
+     */
+    private final class JsonArrayWriter implements ArrayWriter {
+	private final OutputStream out;
+	private final OutputStream elementOut;
+	private boolean empty = true;
+
+	private JsonArrayWriter(final OutputStream out) {
+	    this.out = out;
+	    // writers may close the stream they write to
+	    this.elementOut = new FilterOutputStream(out) {
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+		    out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+		    flush();
+		}
+	    };
+	}
+
+	/**
+	 * @param row
+	 *            - element to append
+	 * @throws IOException
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void write(Object row) throws IOException {
+	    out.write(empty ? '[' : ',');
+	    empty = false;
+	    rowWriter.writeTo(row, row.getClass(), row.getClass(), NO_ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE,
+		    new MultivaluedMapImpl<String, Object>(), elementOut);
+	}
+
+	/**
+	 * Ends the array, the stream is flushed but not closed.
+	 *
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+	    if (empty) {
+		out.write('[');
+	    }
+	    out.write(']');
+	    out.flush();
+	}
+    }
+}
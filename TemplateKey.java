@@ -0,0 +1,62 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.Objects;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+
+/**
+ * (appId, templateId) key of a template and its notifications. The ids are compared with
+ * Objects.equals, as the template/notification join does.
+ */
+final class TemplateKey {
+
+    private final Object appId;
+    private final Object templateId;
+    private final int hash;
+
+    TemplateKey(Object appId, Object templateId) {
+	this.appId = appId;
+	this.templateId = templateId;
+	this.hash = 31 * Objects.hashCode(appId) + Objects.hashCode(templateId);
+    }
+
+    static TemplateKey of(Template template) {
+	return new TemplateKey(template.getAppId(), template.getTemplateId());
+    }
+
+    static TemplateKey of(Notification notification) {
+	return new TemplateKey(notification.getAppId(), notification.getTemplateId());
+    }
+
+    Object getAppId() {
+	return appId;
+    }
+
+    Object getTemplateId() {
+	return templateId;
+    }
+
+    @Override
+    public int hashCode() {
+	return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	if (this == obj) {
+	    return true;
+	}
+	if (!(obj instanceof TemplateKey)) {
+	    return false;
+	}
+	TemplateKey other = (TemplateKey) obj;
+	return hash == other.hash && Objects.equals(appId, other.appId)
+		&& Objects.equals(templateId, other.templateId);
+    }
+
+    @Override
+    public String toString() {
+	return appId + "/" + templateId;
+    }
+}
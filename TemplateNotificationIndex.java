@@ -0,0 +1,166 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.common.util.NtfUtils;
+
+/**
+ * Hash index of the notification list keyed on (appId, templateId) and on (appId, templateId,
+ * category). It lets the template/notification join probe the matching notifications of a template
+ * directly instead of scanning every notification for every template.<br>
+ * The keys use the same equality as the nested-loop match: appId and templateId are compared with
+ * Objects.equals, the category with the safeToString value of the notification category. The
+ * notifications of a key keep the order they have in the source list, the keys are in the order of
+ * their first notification.
+ */
+final class TemplateNotificationIndex {
+
+    private final OverlayMap<TemplateKey, List<Notification>> byTemplate;
+    private final OverlayMap<TemplateKey, Map<String, List<Notification>>> byTemplateAndCategory;
+    private final int notificationCount;
+
+    private TemplateNotificationIndex(OverlayMap<TemplateKey, List<Notification>> byTemplate,
+	    OverlayMap<TemplateKey, Map<String, List<Notification>>> byTemplateAndCategory, int notificationCount) {
+	this.byTemplate = byTemplate;
+	this.byTemplateAndCategory = byTemplateAndCategory;
+	this.notificationCount = notificationCount;
+    }
+
+    /**
+     * Builds the index for a notification list. The list must not be modified afterwards.
+     *
+     * @param notifications
+     *            - all notifications, may be null
+     * @return the index
+     */
+    static TemplateNotificationIndex build(List<Notification> notifications) {
+	Map<TemplateKey, List<Notification>> byTemplate = new LinkedHashMap<>();
+	Map<TemplateKey, Map<String, List<Notification>>> byTemplateAndCategory = new HashMap<>();
+	int count = 0;
+	if (notifications != null) {
+	    for (Notification notification : notifications) {
+		TemplateKey key = TemplateKey.of(notification);
+		add(byTemplate, key, notification);
+		Map<String, List<Notification>> byCategory = byTemplateAndCategory.get(key);
+		if (byCategory == null) {
+		    byCategory = new HashMap<>(2);
+		    byTemplateAndCategory.put(key, byCategory);
+		}
+		add(byCategory, NtfUtils.safeToString(notification.getCategory()), notification);
+		count++;
+	    }
+	}
+	return new TemplateNotificationIndex(OverlayMap.of(byTemplate), OverlayMap.of(byTemplateAndCategory), count);
+    }
+
+    /**
+     * Returns an index with the notifications of some keys replaced. Only the entries of these keys
+     * are built, the others are shared with this index.
+     *
+     * @param changed
+     *            - all notifications per changed key, an empty list removes the key
+     * @return the new index
+     */
+    TemplateNotificationIndex withNotifications(Map<TemplateKey, List<Notification>> changed) {
+	Map<TemplateKey, List<Notification>> newByTemplate = new HashMap<>();
+	Map<TemplateKey, Map<String, List<Notification>>> newByTemplateAndCategory = new HashMap<>();
+	int count = notificationCount;
+	for (Map.Entry<TemplateKey, List<Notification>> entry : changed.entrySet()) {
+	    TemplateKey key = entry.getKey();
+	    count += entry.getValue().size() - lookup(key).size();
+	    if (entry.getValue().isEmpty()) {
+		newByTemplate.put(key, null);
+		newByTemplateAndCategory.put(key, null);
+		continue;
+	    }
+	    Map<String, List<Notification>> byCategory = new HashMap<>(2);
+	    for (Notification notification : entry.getValue()) {
+		add(byCategory, NtfUtils.safeToString(notification.getCategory()), notification);
+	    }
+	    newByTemplate.put(key, new ArrayList<>(entry.getValue()));
+	    newByTemplateAndCategory.put(key, byCategory);
+	}
+	return new TemplateNotificationIndex(byTemplate.with(newByTemplate),
+		byTemplateAndCategory.with(newByTemplateAndCategory), count);
+    }
+
+    private static <K> void add(Map<K, List<Notification>> map, K key, Notification notification) {
+	List<Notification> list = map.get(key);
+	if (list == null) {
+	    list = new ArrayList<>(1);
+	    map.put(key, list);
+	}
+	list.add(notification);
+    }
+
+    /**
+     * @param key
+     * @return notifications of the key in source order, never null
+     */
+    List<Notification> lookup(TemplateKey key) {
+	List<Notification> list = byTemplate.get(key);
+	return list == null ? Collections.<Notification> emptyList() : list;
+    }
+
+    /**
+     * @param key
+     * @return safeToString categories of the notifications of the key, never null
+     */
+    Set<String> getCategories(TemplateKey key) {
+	Map<String, List<Notification>> byCategory = byTemplateAndCategory.get(key);
+	return byCategory == null ? Collections.<String> emptySet() : Collections.unmodifiableSet(byCategory.keySet());
+    }
+
+    /**
+     * @return keys with at least one notification, built on every call
+     */
+    Set<TemplateKey> getTemplateKeys() {
+	return byTemplate.toMap().keySet();
+    }
+
+    /**
+     * @return all notifications, grouped by key in key order, built on every call
+     */
+    List<Notification> getNotifications() {
+	List<Notification> notifications = new ArrayList<>(notificationCount);
+	for (List<Notification> list : byTemplate.toMap().values()) {
+	    notifications.addAll(list);
+	}
+	return notifications;
+    }
+
+    /**
+     * @return number of notifications
+     */
+    int size() {
+	return notificationCount;
+    }
+
+    /**
+     * Returns the notifications matching the template and, if set, the category.
+     *
+     * @param template
+     * @param category
+     *            - category to filter on, null for all categories
+     * @return matching notifications in source order, never null
+     */
+    List<Notification> lookup(Template template, String category) {
+	TemplateKey key = TemplateKey.of(template);
+	List<Notification> list;
+	if (category == null) {
+	    list = byTemplate.get(key);
+	} else {
+	    Map<String, List<Notification>> byCategory = byTemplateAndCategory.get(key);
+	    list = byCategory == null ? null : byCategory.get(category);
+	}
+	return list == null ? Collections.<Notification> emptyList() : list;
+    }
+}
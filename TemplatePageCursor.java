@@ -0,0 +1,82 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque position in the paged template list of a query. The cursor names the snapshot revision
+ * the iteration started on, so all pages of one iteration are built from the same data, and is bound
+ * to the query it was issued for.
+ */
+final class TemplatePageCursor {
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final long revision;
+    private final int groupIndex;
+    private final int rowOffset;
+
+    TemplatePageCursor(long revision, int groupIndex, int rowOffset) {
+	this.revision = revision;
+	this.groupIndex = groupIndex;
+	this.rowOffset = rowOffset;
+    }
+
+    /**
+     * @return revision of the snapshot the iteration uses
+     */
+    long getRevision() {
+	return revision;
+    }
+
+    /**
+     * @return index of the template group of the next row
+     */
+    int getGroupIndex() {
+	return groupIndex;
+    }
+
+    /**
+     * @return number of rows of the template group already returned
+     */
+    int getRowOffset() {
+	return rowOffset;
+    }
+
+    /**
+     * @param query
+     *            - query the cursor is issued for
+     * @return URL safe cursor string
+     */
+    String encode(TemplateQuery query) {
+	String plain = FORMAT_VERSION + ':' + Long.toString(revision, 36) + ':' + Integer.toString(groupIndex, 36) + ':'
+		+ Integer.toString(rowOffset, 36) + ':' + Long.toHexString(TemplateEntityTag.hash(query.toString()));
+	return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param cursor
+     *            - cursor string of a previous page
+     * @param query
+     *            - query of the request
+     * @return the decoded cursor
+     * @throws NtfRestException
+     *             if the cursor is malformed or was issued for another query
+     */
+    static TemplatePageCursor decode(String cursor, TemplateQuery query) throws NtfRestException {
+	try {
+	    String[] parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+	    if (parts.length == 5 && FORMAT_VERSION.equals(parts[0])
+		    && Long.toHexString(TemplateEntityTag.hash(query.toString())).equals(parts[4])) {
+		TemplatePageCursor decoded = new TemplatePageCursor(Long.parseLong(parts[1], 36),
+			Integer.parseInt(parts[2], 36), Integer.parseInt(parts[3], 36));
+		if (decoded.groupIndex >= 0 && decoded.rowOffset >= 0) {
+		    return decoded;
+		}
+	    }
+	} catch (IllegalArgumentException e) {
+	    // reported below
+	}
+	throw new NtfRestException(NtfTemplateRestExtNew.INVALID_CURSOR, "cursor " + cursor + " is not valid for this query");
+    }
+}
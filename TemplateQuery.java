@@ -0,0 +1,97 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Normalized template enquiry query. The applicationIds are sorted and de-duplicated and a list
+ * containing '*' is reduced to '*', so that equivalent requests map to the same query.
+ */
+final class TemplateQuery {
+
+    static final String ALL_APPS = "*";
+
+    private final List<String> appIds;
+    private final String category;
+    private final String profile;
+    private final String key;
+
+    private TemplateQuery(List<String> appIds, String category, String profile) {
+	this.appIds = appIds;
+	this.category = category;
+	this.profile = profile;
+	StringBuilder sb = new StringBuilder();
+	sb.append(getAppIdParam()).append('|').append(category == null ? "" : category).append('|')
+		.append(profile == null ? "" : profile);
+	this.key = sb.toString();
+    }
+
+    /**
+     * @param appIdParam
+     *            - applicationId or comma separated list of applicationIds, '*' for all
+     * @param category
+     *            - category to filter on, null for all categories
+     * @param profile
+     *            - response profile
+     * @return normalized query
+     */
+    static TemplateQuery of(String appIdParam, String category, String profile) {
+	TreeSet<String> ids = new TreeSet<>();
+	for (String appId : appIdParam.split(",")) {
+	    ids.add(appId);
+	}
+	List<String> appIds = ids.contains(ALL_APPS) ? Collections.singletonList(ALL_APPS)
+		: Collections.unmodifiableList(new ArrayList<>(ids));
+	return new TemplateQuery(appIds, category, profile);
+    }
+
+    /**
+     * @return sorted applicationIds, a single '*' for all
+     */
+    List<String> getAppIds() {
+	return appIds;
+    }
+
+    /**
+     * @return applicationIds as comma separated list
+     */
+    String getAppIdParam() {
+	StringBuilder sb = new StringBuilder();
+	for (String appId : appIds) {
+	    if (sb.length() > 0) {
+		sb.append(',');
+	    }
+	    sb.append(appId);
+	}
+	return sb.toString();
+    }
+
+    boolean isAllApps() {
+	return appIds.size() == 1 && ALL_APPS.equals(appIds.get(0));
+    }
+
+    String getCategory() {
+	return category;
+    }
+
+    String getProfile() {
+	return profile;
+    }
+
+    @Override
+    public int hashCode() {
+	return key.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+	return obj instanceof TemplateQuery && key.equals(((TemplateQuery) obj).key);
+    }
+
+    @Override
+    public String toString() {
+	return key;
+    }
+}
@@ -0,0 +1,191 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of serialized template responses keyed by the normalized {@link TemplateQuery}. An
+ * entry is only valid for the snapshot revision and schema cache generation it was built from, so
+ * a change of the templates, notifications or schema versions invalidates it.<br>
+ * The cache holds at most {@code maxEntries} entries and {@code maxBytes} bytes of response
+ * bodies, the least recently used entries are evicted first. Compressed variants of a body are
+ * kept with its entry and count towards its size.
+ */
+class TemplateResponseCache {
+
+    private final int maxEntries;
+    private final long maxBytes;
+    // access ordered, guarded by this
+    private final LinkedHashMap<TemplateQuery, CachedResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    TemplateResponseCache(int maxEntries, long maxBytes) {
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param query
+     * @param revision
+     *            - current snapshot revision
+     * @param schemaGeneration
+     *            - current schema cache generation
+     * @return the cached response body or null
+     */
+    byte[] get(TemplateQuery query, long revision, long schemaGeneration) {
+	synchronized (this) {
+	    CachedResponse cached = entries.get(query);
+	    if (cached != null) {
+		if (cached.revision == revision && cached.schemaGeneration == schemaGeneration) {
+		    hits.increment();
+		    return cached.body;
+		}
+		remove(query);
+	    }
+	}
+	misses.increment();
+	return null;
+    }
+
+    /**
+     * @param query
+     * @param revision
+     *            - current snapshot revision
+     * @param schemaGeneration
+     *            - current schema cache generation
+     * @return true if a valid response is cached, without counting a hit or miss
+     */
+    synchronized boolean contains(TemplateQuery query, long revision, long schemaGeneration) {
+	CachedResponse cached = entries.get(query);
+	return cached != null && cached.revision == revision && cached.schemaGeneration == schemaGeneration;
+    }
+
+    /**
+     * @param query
+     * @param revision
+     *            - snapshot revision the body was built from
+     * @param schemaGeneration
+     *            - schema cache generation the body was built from
+     * @param body
+     */
+    void put(TemplateQuery query, long revision, long schemaGeneration, byte[] body) {
+	if (maxEntries <= 0 || body.length > maxBytes) {
+	    return;
+	}
+	synchronized (this) {
+	    remove(query);
+	    entries.put(query, new CachedResponse(revision, schemaGeneration, body));
+	    bytes += body.length;
+	    evict();
+	}
+    }
+
+    /**
+     * Returns a body in a content coding. The coded variant of a cached body is built once and kept
+     * with its entry, concurrent requests for the same variant wait for one build.
+     *
+     * @param query
+     * @param body
+     *            - body of the query as returned by {@link #get} or passed to {@link #put}
+     * @param encoding
+     *            - {@link TemplateContentEncoding#GZIP} or {@link TemplateContentEncoding#DEFLATE}
+     * @return the body in the content coding
+     */
+    byte[] getEncoded(TemplateQuery query, byte[] body, String encoding) {
+	CachedResponse cached;
+	synchronized (this) {
+	    cached = entries.get(query);
+	}
+	if (cached == null || cached.body != body) {
+	    // not cached or replaced meanwhile
+	    return TemplateContentEncoding.encode(body, encoding);
+	}
+	byte[] encoded;
+	synchronized (cached) {
+	    encoded = cached.variants.get(encoding);
+	    if (encoded != null) {
+		return encoded;
+	    }
+	    encoded = TemplateContentEncoding.encode(body, encoding);
+	    cached.variants.put(encoding, encoded);
+	}
+	synchronized (this) {
+	    if (entries.get(query) == cached) {
+		cached.size += encoded.length;
+		bytes += encoded.length;
+		evict();
+	    }
+	}
+	return encoded;
+    }
+
+    // must hold this
+    private void evict() {
+	Iterator<Map.Entry<TemplateQuery, CachedResponse>> it = entries.entrySet().iterator();
+	while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+	    bytes -= it.next().getValue().size;
+	    it.remove();
+	    evictions.increment();
+	}
+    }
+
+    /**
+     * Removes all entries.
+     */
+    synchronized void invalidateAll() {
+	entries.clear();
+	bytes = 0;
+    }
+
+    // must hold this
+    private void remove(TemplateQuery query) {
+	CachedResponse removed = entries.remove(query);
+	if (removed != null) {
+	    bytes -= removed.size;
+	}
+    }
+
+    synchronized int size() {
+	return entries.size();
+    }
+
+    synchronized long getBytes() {
+	return bytes;
+    }
+
+    long getHits() {
+	return hits.sum();
+    }
+
+    long getMisses() {
+	return misses.sum();
+    }
+
+    long getEvictions() {
+	return evictions.sum();
+    }
+
+    private static final class CachedResponse {
+	final long revision;
+	final long schemaGeneration;
+	final byte[] body;
+	// compressed variants by content coding, guarded by this entry
+	final Map<String, byte[]> variants = new HashMap<>(4);
+	// bytes counted in the cache size, guarded by the cache
+	long size;
+
+	CachedResponse(long revision, long schemaGeneration, byte[] body) {
+	    this.revision = revision;
+	    this.schemaGeneration = schemaGeneration;
+	    this.body = body;
+	    this.size = body.length;
+	}
+    }
+}
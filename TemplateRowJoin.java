@@ -0,0 +1,489 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.Template_v2;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.common.util.NtfUtils;
+
+/**
+ * Join of templates and notifications into the rows of {@link NtfTemplateRestExtNew}, with the
+ * schema versions of every row. Shared by the resources of a {@link TemplateEnquiryContext}, so the
+ * list, page, stream and change responses build their rows the same way.
+ */
+final class TemplateRowJoin {
+
+    static final String SCHEMA_NAMESPACE = "com.ericsson.cel.cer.ntf";
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateRowJoin.class);
+
+    private final TemplateEnquiryContext context;
+
+    TemplateRowJoin(TemplateEnquiryContext context) {
+	this.context = context;
+    }
+
+    /**
+     * Tells if the rows of a query may carry the versions of a schema changed after a generation of
+     * the schema version cache. The schema of a row is named after its applicationId and category.
+     *
+     * @param query
+     * @param generation
+     * @return true if a schema of the rows of the query changed after the generation
+     */
+    boolean hasSchemaChangesSince(TemplateQuery query, long generation) {
+	for (String schemaName : context.getSchemaVersionCache().getSchemasChangedSince(SCHEMA_NAMESPACE,
+		generation)) {
+	    if (isSchemaOf(query, schemaName)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Combines the hashes of the schema versions the rows of a query may carry, so responses built
+     * from the same versions get the same tag on every node.
+     *
+     * @param query
+     * @return hash of the versions of the schemas of the query read so far
+     */
+    long getSchemaVersionsHash(TemplateQuery query) {
+	long hash = 0;
+	for (Map.Entry<String, Long> entry : context.getSchemaVersionCache().getVersionHashes(SCHEMA_NAMESPACE)
+		.entrySet()) {
+	    if (isSchemaOf(query, entry.getKey())) {
+		hash += entry.getValue();
+	    }
+	}
+	return hash;
+    }
+
+    private static boolean isSchemaOf(TemplateQuery query, String schemaName) {
+	String category = query.getCategory();
+	if (query.isAllApps()) {
+	    return category == null || schemaName.endsWith("_" + category);
+	}
+	for (String appId : query.getAppIds()) {
+	    if (category == null ? schemaName.startsWith(appId + "_") : schemaName.equals(appId + "_" + category)) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    /**
+     * Resolves the schema versions of all schemas used by the rows concurrently, so that the join
+     * finds them in the schema version cache. Lookup failures are left to the join.
+     * 
+     * @param snapshot
+     * @param templates
+     * @param category
+     * @param deadline
+     *            - System.nanoTime() the request has to be answered by
+     * @throws TimeoutException
+     *             if the lookups did not finish before the deadline
+     */
+    void prefetchSchemaVersions(TemplateDataSnapshot snapshot, List<Template> templates, String category,
+	    long deadline) throws TimeoutException {
+	final SchemaVersionCache schemaVersionCache = context.getSchemaVersionCache();
+	Set<String> schemaNames = new LinkedHashSet<>();
+	for (Template template : templates) {
+	    String appIdStr = NtfUtils.safeToString(template.getAppId());
+	    for (Notification notification : snapshot.getNotificationIndex().lookup(template, category)) {
+		String schemaName = appIdStr + "_" + NtfUtils.safeToString(notification.getCategory());
+		if (!schemaVersionCache.isCached(SCHEMA_NAMESPACE, schemaName)) {
+		    schemaNames.add(schemaName);
+		}
+	    }
+	}
+	if (schemaNames.size() < 2) {
+	    // nothing to gain, a single lookup is done by the join
+	    return;
+	}
+	List<Future<?>> lookups = new ArrayList<>(schemaNames.size());
+	try {
+	    for (final String schemaName : schemaNames) {
+		lookups.add(context.getExecutors().getLookupExecutor().submit(new Callable<Object>() {
+		    @Override
+		    public Object call() throws Exception {
+			return schemaVersionCache.get(SCHEMA_NAMESPACE, schemaName);
+		    }
+		}));
+	    }
+	    for (Future<?> lookup : lookups) {
+		try {
+		    TemplateEnquiryExecutors.await(lookup, deadline);
+		} catch (TimeoutException e) {
+		    throw e;
+		} catch (Exception e) {
+		    LOG.debug("Prefetch of schema versions failed", e);
+		}
+	    }
+	} finally {
+	    for (Future<?> lookup : lookups) {
+		lookup.cancel(true);
+	    }
+	}
+    }
+
+    /**
+     * Joins templates with their notifications. Called once per request or once per part of a request,
+     * so the caller records the join with {@link #recordJoin(long, int)}.
+     */
+    ArrayList<TemplateBase> getRowsFromTemplate(TemplateDataSnapshot snapshot, List<Template> templateList,
+	    String category, String version) {
+
+	ArrayList<TemplateBase> retList = new ArrayList<>();
+
+	TemplateNotificationIndex index = snapshot.getNotificationIndex();
+	if (index.size() == 0) {
+	    // no active notification so no template/notification combinations
+	    // to return
+	    return retList;
+	}
+	// merged schema versions of rows found more than once, set to the rows at the end
+	Map<TemplateBase, SchemaVersionSet> mergedVersions = new IdentityHashMap<>();
+	// position of every row in retList by its key, so equal rows are found without scanning the list
+	Map<RowKey, Integer> rowIndexes = new HashMap<>();
+	int threshold = TemplateEnquiryConfig.JOIN_PARALLEL_THRESHOLD;
+	if (threshold > 0 && templateList.size() >= threshold) {
+	    // rows are built in parallel and merged in template order, as in the sequential join
+	    for (List<TemplateBase> rows : createRowsParallel(index, templateList, category, version)) {
+		for (TemplateBase row : rows) {
+		    addRow(retList, rowIndexes, mergedVersions, row);
+		}
+	    }
+	} else {
+	    for (Template template : templateList) {
+		TemplateStrings strings = null;
+		for (Notification notification : index.lookup(template, category)) {
+		    if (strings == null) {
+			strings = new TemplateStrings(template);
+		    }
+		    TemplateBase row = createEntries(version, strings, notification);
+		    if (row != null) {
+			addRow(retList, rowIndexes, mergedVersions, row);
+		    }
+		}
+	    }
+	}
+	for (Map.Entry<TemplateBase, SchemaVersionSet> merged : mergedVersions.entrySet()) {
+	    ((Template_v2) merged.getKey()).setSchemaVersions(merged.getValue().toList());
+	}
+	return retList;
+
+    }
+
+    /**
+     * Records the join of a request, one sample also if its rows were joined in parts.
+     *
+     * @param joinNanos
+     *            - time spent in {@link #getRowsFromTemplate(TemplateDataSnapshot, List, String, String)}
+     * @param rows
+     *            - rows of the response
+     */
+    void recordJoin(long joinNanos, int rows) {
+	TemplateEnquiryMetrics metrics = context.getMetrics();
+	metrics.getStage(TemplateEnquiryMetrics.STAGE_JOIN).record(joinNanos);
+	metrics.countRows(rows);
+    }
+
+    /**
+     * Adds a row to retList, or merges its schema versions into the equal row already present
+     */
+    private static void addRow(ArrayList<TemplateBase> retList, Map<RowKey, Integer> rowIndexes,
+	    Map<TemplateBase, SchemaVersionSet> mergedVersions, TemplateBase row) {
+	RowKey key = new RowKey(row);
+	Integer i = rowIndexes.get(key);
+	if (i == null) {
+	    rowIndexes.put(key, retList.size());
+	    retList.add(row);
+	} else {
+	    appendSchemaVersionList(mergedVersions, retList.get(i), row);
+	}
+    }
+
+    /**
+     * Identity of a row, the template and category it is built of. Rows with equal keys differ only
+     * in their schema versions and are merged into one row.
+     */
+    private static final class RowKey {
+	private final String appId;
+	private final String id;
+	private final String name;
+	private final String category;
+	private final String description;
+	private final int hash;
+
+	RowKey(TemplateBase row) {
+	    Template_v2 template = (Template_v2) row;
+	    appId = template.getApplicationId();
+	    id = template.getId();
+	    name = template.getName();
+	    category = template.getCategory();
+	    description = template.getDescription();
+	    hash = Objects.hash(appId, id, name, category, description);
+	}
+
+	@Override
+	public int hashCode() {
+	    return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+	    if (this == obj) {
+		return true;
+	    }
+	    if (!(obj instanceof RowKey)) {
+		return false;
+	    }
+	    RowKey other = (RowKey) obj;
+	    return hash == other.hash && Objects.equals(appId, other.appId) && Objects.equals(id, other.id)
+		    && Objects.equals(name, other.name) && Objects.equals(category, other.category)
+		    && Objects.equals(description, other.description);
+	}
+    }
+
+    /**
+     * Builds the rows of the templates on the join pool. The template list is split into ranges of
+     * consecutive templates, one task per range. Schema versions not cached yet are read as managed
+     * blocks, see {@link #getSchemaVersions(String)}.
+     * 
+     * @return the rows of every range in template order, without merging equal rows
+     */
+    private List<List<TemplateBase>> createRowsParallel(final TemplateNotificationIndex index,
+	    final List<Template> templateList, final String category, final String version) {
+	ForkJoinPool joinPool = context.getExecutors().getJoinPool();
+	// a few ranges per thread, so threads finishing early take over the remaining ranges
+	int ranges = Math.min(templateList.size(), joinPool.getParallelism() * 4);
+	final List<RecursiveTask<List<TemplateBase>>> tasks = new ArrayList<>(ranges);
+	for (int r = 0; r < ranges; r++) {
+	    final int from = (int) ((long) templateList.size() * r / ranges);
+	    final int to = (int) ((long) templateList.size() * (r + 1) / ranges);
+	    tasks.add(new RecursiveTask<List<TemplateBase>>() {
+		@Override
+		protected List<TemplateBase> compute() {
+		    List<TemplateBase> rows = new ArrayList<>();
+		    for (Template template : templateList.subList(from, to)) {
+			TemplateStrings strings = null;
+			for (Notification notification : index.lookup(template, category)) {
+			    if (strings == null) {
+				strings = new TemplateStrings(template);
+			    }
+			    TemplateBase row = createEntries(version, strings, notification);
+			    if (row != null) {
+				rows.add(row);
+			    }
+			}
+		    }
+		    return rows;
+		}
+	    });
+	}
+	LOG.debug("Building rows of {} templates in {} ranges", templateList.size(), ranges);
+	joinPool.invoke(new RecursiveAction() {
+	    @Override
+	    protected void compute() {
+		invokeAll(tasks);
+	    }
+	});
+	List<List<TemplateBase>> rows = new ArrayList<>(ranges);
+	for (RecursiveTask<List<TemplateBase>> task : tasks) {
+	    rows.add(task.join());
+	}
+	return rows;
+    }
+
+    /**
+     * Appending schema version list of the row to the versions of the equal template present in
+     * retList, the versions are kept latest first
+     * 
+     * @param mergedVersions
+     *            - merged versions per template of retList
+     * @param template
+     *            - template present in retList
+     * @param row
+     */
+    static void appendSchemaVersionList(Map<TemplateBase, SchemaVersionSet> mergedVersions,
+	    TemplateBase template, TemplateBase row) {
+	if (row instanceof Template_v2 && template instanceof Template_v2) {
+	    SchemaVersionSet schemaVersions = mergedVersions.get(template);
+	    if (schemaVersions == null) {
+		schemaVersions = SchemaVersionSet.of(((Template_v2) template).getSchemaVersions());
+		mergedVersions.put(template, schemaVersions);
+	    }
+	    schemaVersions.addAll(((Template_v2) row).getSchemaVersions());
+	}
+    }
+
+    /**
+     * Strings of a template shared by all rows of the template, the applicationId is pooled as it
+     * repeats on the rows of all templates of the application
+     */
+    private static final class TemplateStrings {
+	final String id;
+	final String appId;
+	final String name;
+	final String description;
+
+	TemplateStrings(Template template) {
+	    id = NtfUtils.safeToString(template.getTemplateId());
+	    appId = StringPool.intern(NtfUtils.safeToString(template.getAppId()));
+	    name = NtfUtils.safeToString(template.getTemplateName());
+	    description = NtfUtils.safeToString(template.getDescription());
+	}
+    }
+
+    private TemplateBase createEntries(String version, TemplateStrings template, Notification notification) {
+	switch (version) {
+	case NtfTemplateRestExtNew.VERSION_2:
+	    String categoryStr = StringPool.intern(NtfUtils.safeToString(notification.getCategory()));
+
+	    Template_v2 row = new Template_v2();
+	    row.setId(template.id);
+	    row.setApplicationId(template.appId);
+	    row.setName(template.name);
+	    row.setCategory(categoryStr);
+	    row.setDescription(template.description);
+
+	    setTemplateSchemaVersions(template.appId, categoryStr,
+		    StringPool.intern(NtfUtils.safeToString(notification.getSchemaVersion())), row);
+	    if(row.getSchemaVersions() == null || row.getSchemaVersions().size() == 0){
+		return null;
+	    }
+	    return row;
+	default:
+	    LOG.error("requested unsupported version {}", version);
+	}
+	return null;
+    }
+
+    /**
+     * Reads the versions of a schema. A lookup of a schema that is not cached may wait for the schema
+     * service, on the join pool it is run as managed block, so the pool keeps its parallelism with a
+     * spare thread meanwhile.
+     */
+    private SchemaVersionCache.Entry getSchemaVersions(String schemaName) throws Exception {
+	SchemaVersionCache schemaVersionCache = context.getSchemaVersionCache();
+	if (!(Thread.currentThread() instanceof ForkJoinWorkerThread)
+		|| schemaVersionCache.isCached(SCHEMA_NAMESPACE, schemaName)) {
+	    return schemaVersionCache.get(SCHEMA_NAMESPACE, schemaName);
+	}
+	SchemaLookup lookup = new SchemaLookup(schemaVersionCache, schemaName);
+	ForkJoinPool.managedBlock(lookup);
+	return lookup.getResult();
+    }
+
+    /**
+     * Blocking lookup of the versions of one schema
+     */
+    private static final class SchemaLookup implements ForkJoinPool.ManagedBlocker {
+	private final SchemaVersionCache schemaVersionCache;
+	private final String schemaName;
+	private SchemaVersionCache.Entry result;
+	private Exception failure;
+	private boolean done;
+
+	SchemaLookup(SchemaVersionCache schemaVersionCache, String schemaName) {
+	    this.schemaVersionCache = schemaVersionCache;
+	    this.schemaName = schemaName;
+	}
+
+	@Override
+	public boolean block() {
+	    try {
+		result = schemaVersionCache.get(SCHEMA_NAMESPACE, schemaName);
+	    } catch (Exception e) {
+		if (e instanceof InterruptedException) {
+		    Thread.currentThread().interrupt();
+		}
+		failure = e;
+	    }
+	    done = true;
+	    return true;
+	}
+
+	@Override
+	public boolean isReleasable() {
+	    return done;
+	}
+
+	SchemaVersionCache.Entry getResult() throws Exception {
+	    if (failure != null) {
+		throw failure;
+	    }
+	    return result;
+	}
+    }
+
+    /**
+     * Setting active schema version and major schema version list to Template from Zookeeper schema
+     * service. The list set is shared with the other rows of the schema and must not be modified.<br>
+     * TODO determine if required
+     * 
+     * /**
+     * 
+     * @param appId
+     * @param category
+     * @param defaultSchemaVersion
+     * @param c
+     *            template_v2
+     * @return
+     */
+    void setTemplateSchemaVersions(String appId, String category, String defaultSchemaVersion,
+	    Template_v2 row) {
+	List<String> versionList = Collections.emptyList();
+	if (defaultSchemaVersion == null || appId == null || category == null) {
+	    return;
+	}
+	if (!NtfUtils.isDefaultVersion(defaultSchemaVersion)) {
+	    versionList = Collections.singletonList(defaultSchemaVersion);
+	}
+	// If default version is type 'a.X.X' or 'a.b.X' or 'default'
+	String schemaName = appId + "_" + category;
+	try {
+	    // active version and major version list are resolved once per schema by the cache
+	    SchemaVersionCache.Entry schemaVersions = getSchemaVersions(schemaName);
+	    if (schemaVersions != null) {
+		row.setSchemaVersion(schemaVersions.getActiveVersion());
+
+		// if defaultSchemaVersion is not available in versionList, then get from shcema
+		// service
+		if (versionList.isEmpty()) {
+		    versionList = schemaVersions.getMajorVersions(defaultSchemaVersion);
+		}
+	    } else {
+		LOG.error("Schema Service is Not Available.");
+	    }
+	} catch (Exception e) {
+	    // no versions known for the schema, the row is left out
+	    context.getMetrics().countSchemaFailure();
+	    LOG.warn("Schema versions of {} not available: {}", schemaName, e.getMessage());
+	    LOG.debug("Schema versions exception", e);
+	}
+
+	row.setSchemaVersions(versionList);
+    }
+}
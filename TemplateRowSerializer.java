@@ -0,0 +1,51 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Serializer of template rows into one response representation, either as a whole list or element
+ * by element to a stream.
+ */
+interface TemplateRowSerializer {
+
+    /**
+     * @param rows
+     *            - rows to serialize
+     * @return serialized list
+     * @throws IOException
+     *             if writing fails
+     */
+    byte[] serialize(List<?> rows) throws IOException;
+
+    /**
+     * Starts writing an array of rows to a stream.
+     *
+     * @param out
+     *            - stream to write to, it is not closed
+     * @return writer of the array elements
+     * @throws IOException
+     */
+    ArrayWriter openArray(OutputStream out) throws IOException;
+
+    /**
+     * Writer of an array element by element
+     */
+    interface ArrayWriter {
+
+	/**
+	 * @param row
+	 *            - element to append
+	 * @throws IOException
+	 */
+	void write(Object row) throws IOException;
+
+	/**
+	 * Ends the array, the stream is flushed but not closed.
+	 *
+	 * @throws IOException
+	 */
+	void close() throws IOException;
+    }
+}
@@ -0,0 +1,239 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.ws.rs.core.StreamingOutput;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+
+/**
+ * Streamed template list of a wildcard query. The rows are joined on the enquiry executor in chunks
+ * of whole template groups, in group order, and handed to the container thread through a bounded
+ * queue, so writing never joins and only a few chunks are held in memory. A chunk holds the groups
+ * of {@code join.parallelThreshold} templates, so it is joined in parallel as a whole list of that
+ * size would be, one group per chunk if parallel joins are disabled.<br>
+ * The stream holds the concurrency permit of its query until it is written or abandoned. Joining
+ * the chunks, including waiting for a slow writer, has to end by the request deadline.
+ */
+final class TemplateRowStream implements StreamingOutput {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateRowStream.class);
+
+    // chunks joined ahead of the writer
+    private static final int QUEUE_CHUNKS = 4;
+    // marks the end of the list in the queue
+    private static final List<TemplateBase> END = new ArrayList<>(0);
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final TemplateEnquiryContext context;
+    private final TemplateRowSerializer serializer;
+    private final TemplateQuery query;
+    private final TemplateDataSnapshot snapshot;
+    private final String contentEncoding;
+    private final long deadline;
+    private final Iterator<List<Template>> groups;
+    private final int chunkTemplates;
+
+    private final BlockingQueue<List<TemplateBase>> chunks = new ArrayBlockingQueue<>(QUEUE_CHUNKS);
+    private final AtomicBoolean released = new AtomicBoolean();
+    private volatile boolean abandoned;
+    // set if joining failed, the writer ends the stream incomplete
+    private volatile NtfRestException failure;
+    private List<TemplateBase> firstRows;
+    // of the joins so far, recorded once when all rows are joined
+    private long joinNanos;
+    private int rowCount;
+
+    /**
+     * @param serializer
+     *            - serializer of the rows
+     * @param query
+     *            - normalized query, its permit of the concurrency limit is held by the stream
+     * @param snapshot
+     *            - templates and notifications to use
+     * @param contentEncoding
+     *            - content coding of the stream, null for identity
+     * @param deadline
+     *            - System.nanoTime() the rows have to be joined by
+     */
+    TemplateRowStream(TemplateEnquiryContext context, TemplateRowSerializer serializer, TemplateQuery query,
+	    TemplateDataSnapshot snapshot, String contentEncoding, long deadline) {
+	this.context = context;
+	this.serializer = serializer;
+	this.query = query;
+	this.snapshot = snapshot;
+	this.contentEncoding = contentEncoding;
+	this.deadline = deadline;
+	this.groups = snapshot.getTemplateGroups().iterator();
+	int threshold = TemplateEnquiryConfig.JOIN_PARALLEL_THRESHOLD;
+	this.chunkTemplates = threshold > 0 ? threshold : 1;
+    }
+
+    /**
+     * Joins the first rows, before the response is committed, so an empty result is still reported
+     * as not found. Runs on the enquiry executor.
+     *
+     * @return false if the query has no rows
+     * @throws NtfRestException
+     */
+    boolean start() throws NtfRestException {
+	LOG.info("Streaming Template list of snapshot revision {} for category = {}", snapshot.getRevision(),
+		query.getCategory());
+	firstRows = nextChunk();
+	return firstRows != null;
+    }
+
+    /**
+     * Joins the remaining rows into the queue of the writer, runs on the enquiry executor after the
+     * response is resumed.
+     */
+    void produce() {
+	try {
+	    List<TemplateBase> rows;
+	    while (!abandoned && (rows = nextChunk()) != null) {
+		put(rows);
+	    }
+	    put(END);
+	    context.getRowJoin().recordJoin(joinNanos, rowCount);
+	} catch (NtfRestException e) {
+	    failure = e;
+	    // a stream that is not written in time gives its permit back at the deadline
+	    release();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    failure = new NtfRestException(NtfTemplateRestExtNew.EXCEPTION_CODE, "Streaming interrupted");
+	    release();
+	}
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+	try {
+	    OutputStream encoded = contentEncoding == null ? null
+		    : TemplateContentEncoding.encode(output, contentEncoding);
+	    int count = 0;
+	    // closing ends the content coding and releases the encoder, also if writing fails
+	    try (OutputStream encoder = encoded) {
+		OutputStream out = encoded == null ? output : encoded;
+		TemplateRowSerializer.ArrayWriter writer = serializer.openArray(out);
+		List<TemplateBase> rows = firstRows;
+		firstRows = null;
+		while (rows != END) {
+		    for (TemplateBase row : rows) {
+			writer.write(row);
+		    }
+		    if (count == 0) {
+			// first bytes out as early as possible
+			out.flush();
+		    }
+		    count += rows.size();
+		    rows = take();
+		}
+		// only a complete list is ended
+		writer.close();
+	    }
+	    LOG.info("Number of streamed template records = {} for category = {}", count, query.getCategory());
+	} finally {
+	    abandoned = true;
+	    // frees a producer waiting for room, it stops at the next chunk
+	    chunks.clear();
+	    release();
+	}
+    }
+
+    /**
+     * Gives the permit of the concurrency limit back, once.
+     */
+    void release() {
+	if (released.compareAndSet(false, true)) {
+	    context.getAdmissionControl().release(query);
+	}
+    }
+
+    /**
+     * @return rows of the next groups with any rows, null if there are none
+     */
+    private List<TemplateBase> nextChunk() throws NtfRestException {
+	try {
+	    List<Template> chunk = new ArrayList<>();
+	    while (groups.hasNext() || !chunk.isEmpty()) {
+		if (groups.hasNext()) {
+		    List<Template> group = groups.next();
+		    if (query.getCategory() == null || !snapshot.getNotificationIndex()
+			    .lookup(group.get(0), query.getCategory()).isEmpty()) {
+			chunk.addAll(group);
+		    }
+		    if (chunk.size() < chunkTemplates && groups.hasNext()) {
+			continue;
+		    }
+		}
+		if (chunk.isEmpty()) {
+		    continue;
+		}
+		if (TemplateEnquiryExecutors.isExpired(deadline)) {
+		    throw timeout();
+		}
+		long start = System.nanoTime();
+		List<TemplateBase> rows = context.getRowJoin().getRowsFromTemplate(snapshot, chunk,
+			query.getCategory(), NtfTemplateRestExtNew.VERSION_2);
+		joinNanos += System.nanoTime() - start;
+		rowCount += rows.size();
+		if (!rows.isEmpty()) {
+		    return rows;
+		}
+		chunk = new ArrayList<>();
+	    }
+	    return null;
+	} catch (RuntimeException e) {
+	    LOG.error("Exception in getting the Template list for applicationId {}", query.getAppIdParam(), e);
+	    throw new NtfRestException(NtfTemplateRestExtNew.EXCEPTION_CODE,
+		    "Exception in getting the Template list for applicationId :" + query.getAppIdParam() + " - "
+			    + e.getMessage());
+	}
+    }
+
+    private void put(List<TemplateBase> rows) throws NtfRestException, InterruptedException {
+	if (!chunks.offer(rows, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+	    throw timeout();
+	}
+    }
+
+    private List<TemplateBase> take() throws IOException {
+	try {
+	    // waits in slices, so a failed join is noticed before the deadline
+	    do {
+		List<TemplateBase> rows = chunks.poll(Math.min(deadline - System.nanoTime(), POLL_NANOS),
+			TimeUnit.NANOSECONDS);
+		if (rows != null) {
+		    return rows;
+		}
+	    } while (failure == null && !TemplateEnquiryExecutors.isExpired(deadline));
+	    List<TemplateBase> rows = chunks.poll();
+	    if (rows != null) {
+		return rows;
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException("Streaming interrupted", e);
+	}
+	NtfRestException cause = failure != null ? failure : timeout();
+	throw new IOException(cause.getMessage(), cause);
+    }
+
+    private NtfRestException timeout() {
+	return new NtfRestException(NtfTemplateRestExtNew.TIMEOUT_CODE,
+		"Template request for applicationId :" + query.getAppIdParam() + " not answered in time");
+    }
+}
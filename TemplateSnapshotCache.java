@@ -0,0 +1,359 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.ericsson.bss.cil.cdal.ntf.Interface.ReadFrom;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+import com.ericsson.ntf.ext.webservices.TemplateChangeListener.ChangeType;
+
+/**
+ * Holder of the current {@link TemplateDataSnapshot}. Requests read the snapshot without locking,
+ * the snapshot is replaced by a background reload every {@code snapshot.refreshIntervalMs} ms or
+ * after {@link #invalidate()}, and synchronously by {@link #refresh()}.<br>
+ * If the DataAccessEnablerInterface is an {@link ObservableDataAccessEnabler}, its change events are
+ * queued and applied to the snapshot in the background, the periodic reload then only serves as
+ * consistency check.<br>
+ * Every published revision is passed to the {@link RevisionListener}, which announces it to the
+ * other nodes of the cluster.<br>
+ * A replaced snapshot is retained for paged iterations until no page read it for
+ * {@code retainMs} ms, so an iteration in progress keeps its revision however often the data
+ * changes. At most {@code maxRetained} previous snapshots are kept, the least recently read is
+ * dropped first.
+ */
+class TemplateSnapshotCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateSnapshotCache.class);
+
+    private final DataAccessEnablerInterface daeIntf;
+    private final TemplateEnquiryMetrics metrics;
+    private final ScheduledExecutorService scheduler;
+    private final Object reloadLock = new Object();
+
+    private final long retainMs;
+    private final int maxRetained;
+
+    private final TemplateChangeLog changeLog;
+
+    private final TemplateChangeListener changeListener = new TemplateChangeListener() {
+	@Override
+	public void templateChanged(ChangeType type, Template template) {
+	    enqueue(TemplateChange.of(type, template));
+	}
+
+	@Override
+	public void notificationChanged(ChangeType type, Notification notification) {
+	    enqueue(TemplateChange.of(type, notification));
+	}
+    };
+    private final Queue<TemplateChange> pendingChanges = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+    private final LongAdder appliedChanges = new LongAdder();
+
+    private volatile TemplateDataSnapshot snapshot;
+    // previous revisions, latest first, replaced on every new revision
+    private volatile List<RetainedSnapshot> retained = Collections.emptyList();
+    private volatile long lastCheckedAt;
+    private volatile RevisionListener revisionListener;
+
+    /**
+     * Listener of the published snapshot revisions, called while holding the reload lock
+     */
+    interface RevisionListener {
+	/**
+	 * @param snapshot
+	 *            - the new current snapshot
+	 * @param announce
+	 *            - false if the revision was read because another node announced a change
+	 */
+	void published(TemplateDataSnapshot snapshot, boolean announce);
+    }
+
+    TemplateSnapshotCache(DataAccessEnablerInterface dae, TemplateEnquiryMetrics metrics,
+	    TemplateChangeLog changeLog, long refreshIntervalMs, long retainMs, int maxRetained) {
+	daeIntf = dae;
+	this.metrics = metrics;
+	this.changeLog = changeLog;
+	this.retainMs = retainMs;
+	this.maxRetained = maxRetained;
+	scheduler = Executors
+		.newSingleThreadScheduledExecutor(TemplateEnquiryExecutors.daemonThreads("ntf-template-snapshot-refresh"));
+	if (refreshIntervalMs > 0) {
+	    scheduler.scheduleWithFixedDelay(new Runnable() {
+		@Override
+		public void run() {
+		    reloadQuietly(true);
+		}
+	    }, refreshIntervalMs, refreshIntervalMs, TimeUnit.MILLISECONDS);
+	}
+	if (dae instanceof ObservableDataAccessEnabler) {
+	    ((ObservableDataAccessEnabler) dae).addTemplateChangeListener(changeListener);
+	}
+    }
+
+    /**
+     * Returns the current snapshot, the first call reads the data from the server.
+     *
+     * @return current snapshot
+     * @throws Exception
+     *             if there is no snapshot yet and reading it fails
+     */
+    TemplateDataSnapshot get() throws Exception {
+	TemplateDataSnapshot current = snapshot;
+	if (current != null) {
+	    return current;
+	}
+	synchronized (reloadLock) {
+	    if (snapshot == null) {
+		reload(true);
+	    }
+	    return snapshot;
+	}
+    }
+
+    /**
+     * Returns the current or a retained previous snapshot of a revision.
+     *
+     * @param revision
+     * @return the snapshot or null if the revision is no longer retained
+     */
+    TemplateDataSnapshot get(long revision) {
+	TemplateDataSnapshot current = snapshot;
+	if (current != null && current.getRevision() == revision) {
+	    return current;
+	}
+	long now = System.currentTimeMillis();
+	for (RetainedSnapshot previous : retained) {
+	    if (previous.snapshot.getRevision() == revision) {
+		if (previous.isExpired(now)) {
+		    return null;
+		}
+		previous.lastUsedAt = now;
+		return previous.snapshot;
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * @return current snapshot or null if it has not been read yet
+     */
+    TemplateDataSnapshot peek() {
+	return snapshot;
+    }
+
+    /**
+     * Reads the templates and notifications from the server and replaces the snapshot.
+     *
+     * @return the new snapshot
+     * @throws Exception
+     *             if reading fails, the previous snapshot is kept
+     */
+    TemplateDataSnapshot refresh() throws Exception {
+	synchronized (reloadLock) {
+	    reload(true);
+	    return snapshot;
+	}
+    }
+
+    /**
+     * Schedules a reload of the snapshot in the background.
+     */
+    void invalidate() {
+	invalidate(true);
+    }
+
+    /**
+     * Schedules a reload of the snapshot in the background.
+     *
+     * @param announce
+     *            - false if the reload was requested by another node, a new revision is then not
+     *            announced again
+     */
+    void invalidate(final boolean announce) {
+	scheduler.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		reloadQuietly(announce);
+	    }
+	});
+    }
+
+    /**
+     * @param listener
+     *            - listener of the published revisions, replaces the previous one
+     */
+    void setRevisionListener(RevisionListener listener) {
+	revisionListener = listener;
+    }
+
+    /**
+     * @return number of change events applied to the snapshot
+     */
+    long getAppliedChanges() {
+	return appliedChanges.sum();
+    }
+
+    /**
+     * @return time in ms the data was last read from the server
+     */
+    long getLastCheckedAt() {
+	return lastCheckedAt;
+    }
+
+    void shutdown() {
+	if (daeIntf instanceof ObservableDataAccessEnabler) {
+	    ((ObservableDataAccessEnabler) daeIntf).removeTemplateChangeListener(changeListener);
+	}
+	scheduler.shutdownNow();
+    }
+
+    private void enqueue(TemplateChange change) {
+	pendingChanges.add(change);
+	if (applyScheduled.compareAndSet(false, true)) {
+	    scheduler.execute(new Runnable() {
+		@Override
+		public void run() {
+		    applyPendingChanges();
+		}
+	    });
+	}
+    }
+
+    /**
+     * Applies all queued changes as one new revision.
+     */
+    private void applyPendingChanges() {
+	applyScheduled.set(false);
+	List<TemplateChange> changes = new ArrayList<>();
+	for (TemplateChange change = pendingChanges.poll(); change != null; change = pendingChanges.poll()) {
+	    changes.add(change);
+	}
+	if (changes.isEmpty()) {
+	    return;
+	}
+	synchronized (reloadLock) {
+	    TemplateDataSnapshot previous = snapshot;
+	    if (previous == null) {
+		// the first load reads the changed data
+		return;
+	    }
+	    long start = System.nanoTime();
+	    publish(previous, previous.withChanges(previous.getRevision() + 1, System.currentTimeMillis(), changes),
+		    true);
+	    appliedChanges.add(changes.size());
+	    LOG.info("Template snapshot revision {} applied {} changes in {} us", snapshot.getRevision(),
+		    changes.size(), TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+	    LOG.debug("Applied changes {}", changes);
+	}
+    }
+
+    private void reloadQuietly(boolean announce) {
+	try {
+	    synchronized (reloadLock) {
+		reload(announce);
+	    }
+	} catch (Exception e) {
+	    LOG.error("Reload of template snapshot failed, keeping revision {}",
+		    snapshot == null ? null : snapshot.getRevision(), e);
+	}
+    }
+
+    // must hold reloadLock
+    private void publish(TemplateDataSnapshot previous, TemplateDataSnapshot next, boolean announce) {
+	retain(previous);
+	// logged first, so the log covers every published revision
+	changeLog.record(previous, next);
+	snapshot = next;
+	RevisionListener listener = revisionListener;
+	if (listener != null) {
+	    try {
+		// the first snapshot of a node is no change to announce
+		listener.published(next, announce && previous != null);
+	    } catch (RuntimeException e) {
+		LOG.error("Announcing template snapshot revision {} failed", next.getRevision(), e);
+	    }
+	}
+    }
+
+    // must hold reloadLock
+    private void retain(TemplateDataSnapshot previous) {
+	if (previous == null || maxRetained <= 0 || retainMs <= 0) {
+	    return;
+	}
+	long now = System.currentTimeMillis();
+	List<RetainedSnapshot> list = new ArrayList<>(retained.size() + 1);
+	list.add(new RetainedSnapshot(previous, now));
+	for (RetainedSnapshot s : retained) {
+	    if (!s.isExpired(now)) {
+		list.add(s);
+	    }
+	}
+	while (list.size() > maxRetained) {
+	    RetainedSnapshot leastRecentlyUsed = list.get(1);
+	    for (RetainedSnapshot s : list.subList(1, list.size())) {
+		if (s.lastUsedAt < leastRecentlyUsed.lastUsedAt) {
+		    leastRecentlyUsed = s;
+		}
+	    }
+	    list.remove(leastRecentlyUsed);
+	}
+	retained = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * A replaced snapshot with the time it was last read by a page
+     */
+    private final class RetainedSnapshot {
+	final TemplateDataSnapshot snapshot;
+	volatile long lastUsedAt;
+
+	RetainedSnapshot(TemplateDataSnapshot snapshot, long replacedAt) {
+	    this.snapshot = snapshot;
+	    this.lastUsedAt = replacedAt;
+	}
+
+	boolean isExpired(long now) {
+	    return now - lastUsedAt >= retainMs;
+	}
+    }
+
+    // must hold reloadLock
+    private void reload(boolean announce) throws Exception {
+	long start = System.currentTimeMillis();
+	long stageStart = System.nanoTime();
+	metrics.countDaeCall(TemplateEnquiryMetrics.DAE_GET_ALL_TEMPLATE);
+	List<Template> templates = daeIntf.getAllTemplate(ReadFrom.SERVER);
+	metrics.recordStage(TemplateEnquiryMetrics.STAGE_GET_ALL_TEMPLATE, stageStart);
+	stageStart = System.nanoTime();
+	metrics.countDaeCall(TemplateEnquiryMetrics.DAE_GET_ALL_NOTIFICATION);
+	List<Notification> notifications = daeIntf.getAllNotification(ReadFrom.SERVER);
+	metrics.recordStage(TemplateEnquiryMetrics.STAGE_GET_ALL_NOTIFICATION, stageStart);
+	long now = System.currentTimeMillis();
+	lastCheckedAt = now;
+
+	TemplateDataSnapshot previous = snapshot;
+	if (previous != null && previous.hasSameData(templates, notifications)) {
+	    LOG.debug("Template snapshot revision {} unchanged", previous.getRevision());
+	    return;
+	}
+	long revision = previous == null ? 1 : previous.getRevision() + 1;
+	publish(previous, previous == null ? new TemplateDataSnapshot(revision, now, templates, notifications)
+		: previous.reloaded(revision, now, templates, notifications), announce);
+	LOG.info("Template snapshot revision {} loaded in {} ms, templates = {}, notifications = {}", revision,
+		now - start, snapshot.getTemplateCount(), snapshot.getNotificationIndex().size());
+    }
+}
@@ -0,0 +1,66 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque revision token of the template data a client holds. It names the change log epoch, the
+ * snapshot revision and the schema cache generation, so the changes since the token can be
+ * answered from the {@link TemplateChangeLog} of the same epoch. A token is only valid on the node
+ * that issued it, other nodes answer it with a full resync.
+ */
+final class TemplateSyncToken {
+
+    private static final String FORMAT_VERSION = "1";
+
+    private final long epoch;
+    private final long revision;
+    private final long schemaGeneration;
+
+    TemplateSyncToken(long epoch, long revision, long schemaGeneration) {
+	this.epoch = epoch;
+	this.revision = revision;
+	this.schemaGeneration = schemaGeneration;
+    }
+
+    long getEpoch() {
+	return epoch;
+    }
+
+    long getRevision() {
+	return revision;
+    }
+
+    long getSchemaGeneration() {
+	return schemaGeneration;
+    }
+
+    /**
+     * @return URL safe token string
+     */
+    String encode() {
+	String plain = FORMAT_VERSION + ':' + Long.toString(epoch, 36) + ':' + Long.toString(revision, 36) + ':'
+		+ Long.toString(schemaGeneration, 36);
+	return Base64.getUrlEncoder().withoutPadding().encodeToString(plain.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param token
+     *            - token string of a previous response
+     * @return the decoded token
+     * @throws NtfRestException
+     *             if the token is malformed
+     */
+    static TemplateSyncToken decode(String token) throws NtfRestException {
+	try {
+	    String[] parts = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":");
+	    if (parts.length == 4 && FORMAT_VERSION.equals(parts[0])) {
+		return new TemplateSyncToken(Long.parseLong(parts[1], 36), Long.parseLong(parts[2], 36),
+			Long.parseLong(parts[3], 36));
+	    }
+	} catch (IllegalArgumentException e) {
+	    // reported below
+	}
+	throw new NtfRestException(NtfTemplateRestExtNew.INVALID_SYNC_TOKEN, "since token " + token + " is not valid");
+    }
+}
@@ -0,0 +1,194 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link TemplateInvalidationChannel} sending every announcement as UDP datagram to a fixed list
+ * of peers and receiving the announcements of the peers on a local socket. Datagrams may be lost,
+ * the periodic snapshot reload then picks up the change. Datagrams are only accepted from the
+ * address and port of a peer, the peers send from the socket they receive on.<br>
+ * The host names of the peers are resolved again every {@code cluster.udpResolveMs} when sending or
+ * receiving, so a peer restarted on another address is found again. A peer that can not be
+ * resolved is left out until the next resolution.
+ */
+public class UdpInvalidationChannel implements TemplateInvalidationChannel {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UdpInvalidationChannel.class);
+
+    private static final int MAX_DATAGRAM = 512;
+
+    private final InetSocketAddress bindAddress;
+    private final List<InetSocketAddress> peers;
+    private final long resolveIntervalMs;
+    private volatile ResolvedPeers resolvedPeers;
+    private volatile DatagramSocket socket;
+
+    /**
+     * @param bindAddress
+     *            - local address announcements are received on
+     * @param peers
+     *            - addresses of the other nodes
+     */
+    public UdpInvalidationChannel(InetSocketAddress bindAddress, List<InetSocketAddress> peers) {
+	this.bindAddress = bindAddress;
+	this.peers = Collections.unmodifiableList(new ArrayList<>(peers));
+	this.resolveIntervalMs = TemplateEnquiryConfig.CLUSTER_UDP_RESOLVE_MS;
+	this.resolvedPeers = resolve();
+    }
+
+    /**
+     * Channel on the addresses of the {@code cluster.udpBind} and {@code cluster.udpPeers}
+     * properties, host:port and a comma separated list of host:port
+     */
+    public UdpInvalidationChannel() {
+	this(parseAddress(TemplateEnquiryConfig.CLUSTER_UDP_BIND),
+		parseAddresses(TemplateEnquiryConfig.CLUSTER_UDP_PEERS));
+    }
+
+    static List<InetSocketAddress> parseAddresses(String addresses) {
+	List<InetSocketAddress> list = new ArrayList<>();
+	for (String address : addresses.split(",")) {
+	    if (!address.trim().isEmpty()) {
+		list.add(parseAddress(address.trim()));
+	    }
+	}
+	return list;
+    }
+
+    static InetSocketAddress parseAddress(String address) {
+	int colon = address.lastIndexOf(':');
+	if (colon < 0) {
+	    throw new IllegalArgumentException("address " + address + " is not host:port");
+	}
+	return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    private ResolvedPeers resolve() {
+	List<InetSocketAddress> addresses = new ArrayList<>(peers.size());
+	for (InetSocketAddress peer : peers) {
+	    InetSocketAddress address = new InetSocketAddress(peer.getHostString(), peer.getPort());
+	    if (address.isUnresolved()) {
+		LOG.warn("Peer {} of the template invalidation channel can not be resolved", peer);
+	    } else {
+		addresses.add(address);
+	    }
+	}
+	return new ResolvedPeers(addresses, System.currentTimeMillis());
+    }
+
+    // the peer addresses, resolved again once older than the interval
+    private ResolvedPeers getResolvedPeers() {
+	ResolvedPeers current = resolvedPeers;
+	if (System.currentTimeMillis() - current.resolvedAt >= resolveIntervalMs) {
+	    current = resolve();
+	    if (!current.addresses.equals(resolvedPeers.addresses)) {
+		LOG.info("Peers of the template invalidation channel resolved to {}", current.addresses);
+	    }
+	    resolvedPeers = current;
+	}
+	return current;
+    }
+
+    @Override
+    public void open(final Listener listener) throws IOException {
+	final DatagramSocket receiver = new DatagramSocket(bindAddress);
+	socket = receiver;
+	TemplateEnquiryExecutors.daemonThreads("ntf-template-invalidation-udp").newThread(new Runnable() {
+	    @Override
+	    public void run() {
+		receive(receiver, listener);
+	    }
+	}).start();
+	LOG.info("Template invalidation channel listening on {}, peers {}", receiver.getLocalSocketAddress(), peers);
+    }
+
+    private void receive(DatagramSocket receiver, Listener listener) {
+	byte[] buffer = new byte[MAX_DATAGRAM];
+	while (!receiver.isClosed()) {
+	    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+	    try {
+		receiver.receive(packet);
+	    } catch (IOException e) {
+		if (!receiver.isClosed()) {
+		    LOG.warn("Receiving template invalidation failed", e);
+		}
+		continue;
+	    }
+	    if (!getResolvedPeers().addressSet.contains(packet.getSocketAddress())) {
+		LOG.debug("Ignoring datagram from {}, not a peer", packet.getSocketAddress());
+		continue;
+	    }
+	    TemplateInvalidation invalidation;
+	    try {
+		invalidation = TemplateInvalidation.decode(packet.getData(), packet.getOffset(), packet.getLength());
+	    } catch (IllegalArgumentException e) {
+		LOG.debug("Ignoring datagram from {}: {}", packet.getSocketAddress(), e.getMessage());
+		continue;
+	    }
+	    try {
+		listener.invalidated(invalidation);
+	    } catch (RuntimeException e) {
+		// the thread keeps receiving, the periodic reload picks up a change that failed
+		LOG.warn("Applying template invalidation {} failed", invalidation, e);
+	    }
+	}
+    }
+
+    @Override
+    public void publish(TemplateInvalidation invalidation) throws IOException {
+	DatagramSocket sender = socket;
+	if (sender == null) {
+	    throw new IOException("channel is not open");
+	}
+	byte[] data = invalidation.encode();
+	IOException failure = null;
+	for (InetSocketAddress peer : getResolvedPeers().addresses) {
+	    try {
+		sender.send(new DatagramPacket(data, data.length, peer));
+	    } catch (IOException e) {
+		// the other peers are still notified
+		failure = e;
+	    }
+	}
+	if (failure != null) {
+	    throw failure;
+	}
+    }
+
+    @Override
+    public void close() {
+	DatagramSocket current = socket;
+	socket = null;
+	if (current != null) {
+	    current.close();
+	}
+    }
+
+    @Override
+    public String toString() {
+	return "udp:" + bindAddress;
+    }
+
+    private static final class ResolvedPeers {
+	final List<InetSocketAddress> addresses;
+	final Set<InetSocketAddress> addressSet;
+	final long resolvedAt;
+
+	ResolvedPeers(List<InetSocketAddress> addresses, long resolvedAt) {
+	    this.addresses = addresses;
+	    this.addressSet = new HashSet<>(addresses);
+	    this.resolvedAt = resolvedAt;
+	}
+    }
+}
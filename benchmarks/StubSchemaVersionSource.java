@@ -0,0 +1,63 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SchemaVersionSource in place of the SchemaConfigurationService. Every schema has the same
+ * versions, latest first: four minor versions per major version, e.g. 3.1.0, 3.0.0, 2.3.0, ...
+ */
+class StubSchemaVersionSource implements SchemaVersionSource {
+
+    private final List<String> versions;
+    private volatile long latencyMs;
+
+    /**
+     * @param versionCount
+     *            - number of versions of every schema
+     */
+    StubSchemaVersionSource(int versionCount) {
+	List<String> list = new ArrayList<>(versionCount);
+	for (int v = versionCount - 1; v >= 0; v--) {
+	    list.add((v / 4 + 1) + "." + (v % 4) + ".0");
+	}
+	versions = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @param latencyMs
+     *            - time every lookup waits before it answers
+     */
+    void setLatencyMs(long latencyMs) {
+	this.latencyMs = latencyMs;
+    }
+
+    List<String> getVersions() {
+	return versions;
+    }
+
+    @Override
+    public boolean isAvailable() {
+	return true;
+    }
+
+    @Override
+    public String getActiveVersion(String namespace, String schemaName) throws Exception {
+	pause();
+	return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    @Override
+    public List<String> getVersions(String namespace, String schemaName) throws Exception {
+	pause();
+	return versions;
+    }
+
+    private void pause() throws InterruptedException {
+	long pause = latencyMs;
+	if (pause > 0) {
+	    Thread.sleep(pause);
+	}
+    }
+}
@@ -0,0 +1,117 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ericsson.bss.cil.cdal.ntf.Interface.ReadFrom;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.NotificationDomain.Notification;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+import com.ericsson.ntf.configAgent.DataAccessEnablerInterface;
+
+/**
+ * In-memory DataAccessEnablerInterface with generated templates and notifications. Template i
+ * belongs to PAC "PAC&lt;i % pacs&gt;" and has one notification per category "CAT0".."CAT&lt;n-1&gt;",
+ * all notifications use the default schema version.
+ */
+class SyntheticDataAccessEnabler implements DataAccessEnablerInterface {
+
+    static final String DEFAULT_SCHEMA_VERSION = "default";
+
+    private final List<Template> templates;
+    private final List<Notification> notifications;
+    private final Map<String, List<Template>> templatesByApp = new LinkedHashMap<>();
+    private volatile long latencyMs;
+
+    /**
+     * @param templateCount
+     *            - number of templates
+     * @param notificationsPerTemplate
+     *            - number of notifications, and categories, per template
+     * @param pacs
+     *            - number of applicationIds the templates are spread over
+     */
+    SyntheticDataAccessEnabler(int templateCount, int notificationsPerTemplate, int pacs) {
+	List<Template> templateList = new ArrayList<>(templateCount);
+	List<Notification> notificationList = new ArrayList<>(templateCount * notificationsPerTemplate);
+	for (int i = 0; i < templateCount; i++) {
+	    String appId = pacId(i % pacs);
+	    Template template = new Template();
+	    template.setTemplateId("T" + i);
+	    template.setAppId(appId);
+	    template.setTemplateName("Template " + i);
+	    template.setDescription("Synthetic template " + i + " of " + appId);
+	    templateList.add(template);
+
+	    List<Template> ofApp = templatesByApp.get(appId);
+	    if (ofApp == null) {
+		ofApp = new ArrayList<>();
+		templatesByApp.put(appId, ofApp);
+	    }
+	    ofApp.add(template);
+
+	    for (int c = 0; c < notificationsPerTemplate; c++) {
+		Notification notification = new Notification();
+		notification.setTemplateId("T" + i);
+		notification.setAppId(appId);
+		notification.setCategory(category(c));
+		notification.setSchemaVersion(DEFAULT_SCHEMA_VERSION);
+		notificationList.add(notification);
+	    }
+	}
+	templates = Collections.unmodifiableList(templateList);
+	notifications = Collections.unmodifiableList(notificationList);
+    }
+
+    static String pacId(int index) {
+	return "PAC" + index;
+    }
+
+    static String category(int index) {
+	return "CAT" + index;
+    }
+
+    /**
+     * @param latencyMs
+     *            - time every call waits before it answers
+     */
+    void setLatencyMs(long latencyMs) {
+	this.latencyMs = latencyMs;
+    }
+
+    @Override
+    public List<Template> getAllTemplate(ReadFrom readFrom) throws Exception {
+	pause();
+	return new ArrayList<>(templates);
+    }
+
+    @Override
+    public List<Notification> getAllNotification(ReadFrom readFrom) throws Exception {
+	pause();
+	return new ArrayList<>(notifications);
+    }
+
+    @Override
+    public List<Template> getTemplateForApp(String appId) throws Exception {
+	pause();
+	List<Template> ofApp = templatesByApp.get(appId);
+	return ofApp == null ? new ArrayList<Template>() : new ArrayList<>(ofApp);
+    }
+
+    List<Template> getTemplates() {
+	return templates;
+    }
+
+    List<Notification> getNotifications() {
+	return notifications;
+    }
+
+    private void pause() throws InterruptedException {
+	long pause = latencyMs;
+	if (pause > 0) {
+	    Thread.sleep(pause);
+	}
+    }
+}
@@ -0,0 +1,135 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.TemplateBase;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateExtNewDomain.Template_v2;
+import com.ericsson.bss.cil.cdal.ntf.service.domain.TemplateIdDomain.Template;
+
+/**
+ * Benchmarks of the hot paths of {@link NtfTemplateRestExtNew} and {@link NtfTemplateRestExt} on
+ * synthetic data. The schema versions come from {@link StubSchemaVersionSource} through the schema
+ * version cache, so after the first invocation the join runs against a warm cache.<br>
+ * Run with {@code -prof gc} for the allocation rate, see README.md.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateEnquiryBenchmark {
+
+    private static final String ACCEPT_HEADER = "application/json; " + NtfTemplateRestExtNew.profileV1;
+
+    @Param({ "1000", "10000" })
+    int templates;
+
+    @Param({ "2" })
+    int notificationsPerTemplate;
+
+    @Param({ "50" })
+    int pacs;
+
+    @Param({ "20" })
+    int schemaVersions;
+
+    private NtfTemplateRestExtNew resource;
+    private NtfTemplateRestExt legacyResource;
+    private TemplateDataSnapshot snapshot;
+    private List<Template> pacTemplates;
+    private List<String> versions;
+    private List<String> firstHalfVersions;
+    private List<String> secondHalfVersions;
+    private List<?> allPacRows;
+    private final TemplateCborSerializer cborSerializer = new TemplateCborSerializer();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+	SyntheticDataAccessEnabler dae = new SyntheticDataAccessEnabler(templates, notificationsPerTemplate, pacs);
+	StubSchemaVersionSource schemaVersionSource = new StubSchemaVersionSource(schemaVersions);
+	TemplateEnquiryContext context = TemplateEnquiryContext.forDataAccessEnabler(dae, schemaVersionSource);
+	resource = new NtfTemplateRestExtNew(dae);
+	legacyResource = new NtfTemplateRestExt(dae);
+	// the warm-up started by the resources must not run during the measurement
+	context.getWarmUp().awaitReady(TimeUnit.MINUTES.toMillis(5));
+
+	snapshot = new TemplateDataSnapshot(1, System.currentTimeMillis(), dae.getTemplates(), dae.getNotifications());
+	pacTemplates = dae.getTemplateForApp(SyntheticDataAccessEnabler.pacId(0));
+	allPacRows = resource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null,
+		NtfTemplateRestExtNew.VERSION_2);
+
+	versions = schemaVersionSource.getVersions();
+	firstHalfVersions = new ArrayList<>();
+	secondHalfVersions = new ArrayList<>();
+	for (int i = 0; i < versions.size(); i++) {
+	    (i % 2 == 0 ? firstHalfVersions : secondHalfVersions).add(versions.get(i));
+	}
+    }
+
+    @Benchmark
+    public List<?> newGetRowsFromTemplateAllPacs() throws Exception {
+	return resource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null, NtfTemplateRestExtNew.VERSION_2);
+    }
+
+    @Benchmark
+    public List<?> newGetRowsFromTemplateOnePac() throws Exception {
+	return resource.getRowsFromTemplate(snapshot, pacTemplates, SyntheticDataAccessEnabler.category(0),
+		NtfTemplateRestExtNew.VERSION_2);
+    }
+
+    @Benchmark
+    public List<?> legacyGetRowsFromTemplateAllPacs() throws Exception {
+	return legacyResource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null, NtfTemplateRestExt.VERSION_2);
+    }
+
+    @Benchmark
+    public List<?> legacyGetRowsFromTemplateOnePac() throws Exception {
+	return legacyResource.getRowsFromTemplate(snapshot, pacTemplates, SyntheticDataAccessEnabler.category(0),
+		NtfTemplateRestExt.VERSION_2);
+    }
+
+    @Benchmark
+    public byte[] cborSerializeAllPacs() throws Exception {
+	return cborSerializer.serialize(allPacRows);
+    }
+
+    @Benchmark
+    public List<String> appendSchemaVersionList() {
+	Template_v2 template = new Template_v2();
+	template.setSchemaVersions(new ArrayList<>(firstHalfVersions));
+	Template_v2 row = new Template_v2();
+	row.setSchemaVersions(new ArrayList<>(secondHalfVersions));
+
+	Map<TemplateBase, SchemaVersionSet> mergedVersions = new IdentityHashMap<>();
+	TemplateRowJoin.appendSchemaVersionList(mergedVersions, template, row);
+	return mergedVersions.get(template).toList();
+    }
+
+    @Benchmark
+    public List<String> filterMajorVersionsDefault() {
+	return NtfTemplateRestExtNew.filterMajorVersions(versions, SyntheticDataAccessEnabler.DEFAULT_SCHEMA_VERSION);
+    }
+
+    @Benchmark
+    public String getSchemaVersion() {
+	return NtfTemplateRestExtNew.getSchemaVersion(ACCEPT_HEADER);
+    }
+}
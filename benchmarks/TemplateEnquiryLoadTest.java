@@ -0,0 +1,280 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jboss.resteasy.plugins.server.undertow.UndertowJaxrsServer;
+import org.jboss.resteasy.spi.ResteasyDeployment;
+
+import io.undertow.Undertow;
+
+/**
+ * Load test of the template resources in an embedded Undertow/RESTEasy container, backed by
+ * {@link SyntheticDataAccessEnabler} and {@link StubSchemaVersionSource} with configurable
+ * latency.<br>
+ * Requests are sent open loop at a fixed rate from a weighted mix, the latency of a request is
+ * measured from the time it was due, so a slow server is not hidden by a slowed down client.
+ * Settings are system properties with the prefix {@value #PREFIX}, see README.md.
+ */
+public final class TemplateEnquiryLoadTest {
+
+    static final String PREFIX = "loadtest.";
+
+    // weight|path|accept, {pac} and {category} in the path are replaced by a random PAC/category
+    private static final String DEFAULT_MIX = "40|/ntf/notificationTemplateEnquiry/v1/notificationTemplate?applicationId={pac}|v1;"
+	    + "20|/ntf/notificationTemplateEnquiry/v1/notificationTemplate?applicationId={pac}&category={category}|v1;"
+	    + "10|/ntf/notificationTemplateEnquiry/v1/notificationTemplate?applicationId={pac},{pac},{pac}|v1;"
+	    + "2|/ntf/notificationTemplateEnquiry/v1/notificationTemplate?applicationId=*|v1;"
+	    + "3|/ntf/notificationTemplateEnquiry/v1/notificationTemplate?applicationId={pac}|none;"
+	    + "20|/ntf-rest/ntf/template/v2?domain={pac}&category={category}|none;"
+	    + "5|/ntf-rest/ntf/template/{pac}|none";
+
+    private static final String ACCEPT_V1 = "application/json; " + NtfTemplateRestExtNew.profileV1;
+
+    private final int port = Integer.getInteger(PREFIX + "port", 8089);
+    private final int rate = Integer.getInteger(PREFIX + "rate", 200);
+    private final int warmupSeconds = Integer.getInteger(PREFIX + "warmupSeconds", 10);
+    private final int durationSeconds = Integer.getInteger(PREFIX + "durationSeconds", 60);
+    private final int clients = Integer.getInteger(PREFIX + "clients", 64);
+    private final int templates = Integer.getInteger(PREFIX + "templates", 10000);
+    private final int notificationsPerTemplate = Integer.getInteger(PREFIX + "notificationsPerTemplate", 2);
+    private final int pacs = Integer.getInteger(PREFIX + "pacs", 200);
+    private final int schemaVersions = Integer.getInteger(PREFIX + "schemaVersions", 20);
+    private final long daeLatencyMs = Long.getLong(PREFIX + "daeLatencyMs", 5);
+    private final long schemaLatencyMs = Long.getLong(PREFIX + "schemaLatencyMs", 2);
+    private final List<MixEntry> mix = parseMix(System.getProperty(PREFIX + "mix", DEFAULT_MIX));
+
+    public static void main(String[] args) throws Exception {
+	new TemplateEnquiryLoadTest().run();
+    }
+
+    private void run() throws Exception {
+	SyntheticDataAccessEnabler dae = new SyntheticDataAccessEnabler(templates, notificationsPerTemplate, pacs);
+	dae.setLatencyMs(daeLatencyMs);
+	StubSchemaVersionSource schemaVersionSource = new StubSchemaVersionSource(schemaVersions);
+	schemaVersionSource.setLatencyMs(schemaLatencyMs);
+	TemplateEnquiryContext context = TemplateEnquiryContext.forDataAccessEnabler(dae, schemaVersionSource);
+
+	ResteasyDeployment deployment = new ResteasyDeployment();
+	deployment.getResources().add(new NtfTemplateRestExtNew(dae));
+	deployment.getResources().add(new NtfTemplateRestExt(dae));
+	deployment.getResources().add(new NtfTemplateAdminRest(dae));
+	long warmUpStart = System.currentTimeMillis();
+	if (context.getWarmUp().awaitReady(TimeUnit.MINUTES.toMillis(5))) {
+	    System.out.printf("Ready after %d ms%n", System.currentTimeMillis() - warmUpStart);
+	}
+	UndertowJaxrsServer server = new UndertowJaxrsServer()
+		.start(Undertow.builder().addHttpListener(port, "127.0.0.1"));
+	server.deploy(server.undertowDeployment(deployment, "/").setContextPath("/")
+		.setDeploymentName("ntf-template-loadtest").setClassLoader(TemplateEnquiryLoadTest.class.getClassLoader()));
+	try {
+	    System.out.printf("Warm-up: %d s at %d requests/s%n", warmupSeconds, rate);
+	    runPhase(warmupSeconds);
+	    for (MixEntry entry : mix) {
+		entry.reset();
+	    }
+	    System.out.printf("Measurement: %d s at %d requests/s%n", durationSeconds, rate);
+	    long elapsedNanos = runPhase(durationSeconds);
+	    report(elapsedNanos);
+	} finally {
+	    server.stop();
+	}
+    }
+
+    /**
+     * Sends requests at the target rate for the duration and waits for their responses.
+     *
+     * @return elapsed time in ns
+     */
+    private long runPhase(int seconds) throws InterruptedException {
+	ExecutorService clientPool = Executors.newFixedThreadPool(clients,
+		TemplateEnquiryExecutors.daemonThreads("ntf-loadtest-client"));
+	long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(rate, 1);
+	long total = (long) seconds * rate;
+	long start = System.nanoTime();
+	for (long i = 0; i < total; i++) {
+	    final long due = start + i * intervalNanos;
+	    long wait = due - System.nanoTime();
+	    if (wait > 0) {
+		TimeUnit.NANOSECONDS.sleep(wait);
+	    }
+	    final MixEntry entry = pick();
+	    clientPool.execute(new Runnable() {
+		@Override
+		public void run() {
+		    send(entry, due);
+		}
+	    });
+	}
+	clientPool.shutdown();
+	clientPool.awaitTermination(1, TimeUnit.HOURS);
+	return System.nanoTime() - start;
+    }
+
+    private MixEntry pick() {
+	int r = ThreadLocalRandom.current().nextInt(mix.get(mix.size() - 1).cumulativeWeight);
+	for (MixEntry entry : mix) {
+	    if (r < entry.cumulativeWeight) {
+		return entry;
+	    }
+	}
+	return mix.get(mix.size() - 1);
+    }
+
+    private void send(MixEntry entry, long due) {
+	try {
+	    // connections are kept alive when the response is read completely
+	    HttpURLConnection connection = (HttpURLConnection) new URL(
+		    "http://127.0.0.1:" + port + entry.expandPath()).openConnection();
+	    if (entry.accept != null) {
+		connection.setRequestProperty("Accept", entry.accept);
+	    }
+	    int status = connection.getResponseCode();
+	    drain(status < 400 ? connection.getInputStream() : connection.getErrorStream());
+	    entry.latency.record(System.nanoTime() - due);
+	    if (status >= 400) {
+		entry.countError(String.valueOf(status));
+	    }
+	} catch (IOException e) {
+	    entry.latency.record(System.nanoTime() - due);
+	    entry.countError(e.getClass().getSimpleName());
+	}
+    }
+
+    private static void drain(InputStream in) throws IOException {
+	if (in == null) {
+	    return;
+	}
+	try {
+	    byte[] buffer = new byte[8192];
+	    while (in.read(buffer) >= 0) {
+		// discard
+	    }
+	} finally {
+	    in.close();
+	}
+    }
+
+    private void report(long elapsedNanos) {
+	LatencyHistogram all = new LatencyHistogram();
+	long requests = 0;
+	Map<String, Long> errors = new TreeMap<>();
+	System.out.printf("%-100s %8s %9s %9s %9s %9s %7s%n", "request", "count", "p50 ms", "p99 ms", "p999 ms",
+		"max ms", "errors");
+	for (MixEntry entry : mix) {
+	    LatencyHistogram.Snapshot snapshot = entry.latency.snapshot();
+	    long entryErrors = 0;
+	    for (Map.Entry<String, LongAdder> error : entry.errors.entrySet()) {
+		long count = error.getValue().sum();
+		entryErrors += count;
+		Long previous = errors.get(error.getKey());
+		errors.put(error.getKey(), previous == null ? count : previous + count);
+	    }
+	    printLine(entry.path + " [" + entry.acceptName + "]", snapshot, entryErrors);
+	    requests += snapshot.getCount();
+	    all.add(entry.latency);
+	}
+	long totalErrors = 0;
+	for (long count : errors.values()) {
+	    totalErrors += count;
+	}
+	printLine("all", all.snapshot(), totalErrors);
+	System.out.printf("%nrequests = %d, achieved rate = %.1f requests/s, errors = %s%n", requests,
+		requests / (elapsedNanos / 1e9), errors);
+    }
+
+    private static void printLine(String name, LatencyHistogram.Snapshot snapshot, long errors) {
+	System.out.printf("%-100s %8d %9.2f %9.2f %9.2f %9.2f %7d%n", name, snapshot.getCount(),
+		snapshot.getValueAtPercentile(50) / 1e6, snapshot.getValueAtPercentile(99) / 1e6,
+		snapshot.getValueAtPercentile(99.9) / 1e6, snapshot.getMax() / 1e6, errors);
+    }
+
+    private List<MixEntry> parseMix(String spec) {
+	List<MixEntry> entries = new ArrayList<>();
+	int cumulativeWeight = 0;
+	for (String part : spec.split(";")) {
+	    if (part.trim().isEmpty()) {
+		continue;
+	    }
+	    String[] fields = part.trim().split("\\|", 3);
+	    if (fields.length != 3) {
+		throw new IllegalArgumentException("Mix entry '" + part + "' is not weight|path|accept");
+	    }
+	    cumulativeWeight += Integer.parseInt(fields[0]);
+	    entries.add(new MixEntry(cumulativeWeight, fields[1], fields[2]));
+	}
+	if (entries.isEmpty() || cumulativeWeight <= 0) {
+	    throw new IllegalArgumentException("Empty request mix");
+	}
+	return entries;
+    }
+
+    /**
+     * Request of the mix with its latencies and errors
+     */
+    private final class MixEntry {
+	final int cumulativeWeight;
+	final String path;
+	final String acceptName;
+	// null to send no Accept header
+	final String accept;
+	final LatencyHistogram latency = new LatencyHistogram();
+	final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+	MixEntry(int cumulativeWeight, String path, String acceptName) {
+	    this.cumulativeWeight = cumulativeWeight;
+	    this.path = path;
+	    this.acceptName = acceptName;
+	    if ("v1".equals(acceptName)) {
+		accept = ACCEPT_V1;
+	    } else if ("none".equals(acceptName)) {
+		accept = null;
+	    } else {
+		accept = acceptName;
+	    }
+	}
+
+	String expandPath() {
+	    ThreadLocalRandom random = ThreadLocalRandom.current();
+	    String expanded = path;
+	    while (expanded.contains("{pac}")) {
+		expanded = expanded.replaceFirst("\\{pac\\}", SyntheticDataAccessEnabler.pacId(random.nextInt(pacs)));
+	    }
+	    while (expanded.contains("{category}")) {
+		expanded = expanded.replaceFirst("\\{category\\}",
+			SyntheticDataAccessEnabler.category(random.nextInt(notificationsPerTemplate)));
+	    }
+	    return expanded;
+	}
+
+	void countError(String kind) {
+	    LongAdder counter = errors.get(kind);
+	    if (counter == null) {
+		LongAdder created = new LongAdder();
+		counter = errors.putIfAbsent(kind, created);
+		if (counter == null) {
+		    counter = created;
+		}
+	    }
+	    counter.increment();
+	}
+
+	void reset() {
+	    latency.reset();
+	    errors.clear();
+	}
+    }
+}
@@ -0,0 +1,74 @@
+package com.ericsson.ntf.ext.webservices;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the retained heap of the template catalog per template for growing synthetic
+ * catalogs: the snapshot with its indexes, and the rows of the join of all PACs. The retained
+ * size is the used heap after a full GC with the data reachable, minus the used heap before it was
+ * built.<br>
+ * Settings are system properties with the prefix {@value #PREFIX}, see README.md.
+ */
+public final class TemplateFootprint {
+
+    static final String PREFIX = "footprint.";
+
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    private TemplateFootprint() {
+    }
+
+    public static void main(String[] args) throws Exception {
+	String[] sizes = System.getProperty(PREFIX + "templates", "1000,10000,100000").split(",");
+	int notificationsPerTemplate = Integer.getInteger(PREFIX + "notificationsPerTemplate", 2);
+	int pacs = Integer.getInteger(PREFIX + "pacs", 200);
+	int schemaVersions = Integer.getInteger(PREFIX + "schemaVersions", 20);
+
+	// loads and initializes the classes, which would otherwise be counted for the first size
+	measure(100, notificationsPerTemplate, pacs, schemaVersions, false);
+	System.out.printf("%10s %14s %14s %14s %12s%n", "templates", "snapshot B/t", "rows B/t", "rows", "pooled");
+	for (String size : sizes) {
+	    measure(Integer.parseInt(size.trim()), notificationsPerTemplate, pacs, schemaVersions, true);
+	}
+    }
+
+    private static void measure(int templates, int notificationsPerTemplate, int pacs, int schemaVersions,
+	    boolean print) throws Exception {
+	long base = usedHeap();
+	SyntheticDataAccessEnabler dae = new SyntheticDataAccessEnabler(templates, notificationsPerTemplate, pacs);
+	TemplateDataSnapshot snapshot = new TemplateDataSnapshot(1, System.currentTimeMillis(), dae.getTemplates(),
+		dae.getNotifications());
+	long snapshotBytes = usedHeap() - base;
+
+	TemplateEnquiryContext context = TemplateEnquiryContext.forDataAccessEnabler(dae,
+		new StubSchemaVersionSource(schemaVersions));
+	NtfTemplateRestExtNew resource = new NtfTemplateRestExtNew(dae);
+	context.getWarmUp().awaitReady(TimeUnit.MINUTES.toMillis(5));
+	// fill the schema version cache before measuring the rows
+	resource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null, NtfTemplateRestExtNew.VERSION_2);
+	long beforeRows = usedHeap();
+	List<?> rows = resource.getRowsFromTemplate(snapshot, snapshot.getTemplates(), null,
+		NtfTemplateRestExtNew.VERSION_2);
+	long rowsBytes = usedHeap() - beforeRows;
+
+	if (print) {
+	    System.out.printf("%10d %14d %14d %14d %12d%n", templates, snapshotBytes / templates,
+		    rowsBytes / templates, rows.size(), StringPool.size());
+	}
+	// keeps the data reachable up to the measurement
+	if (dae.getTemplates().size() + rows.size() < 0) {
+	    throw new IllegalStateException();
+	}
+    }
+
+    private static long usedHeap() throws InterruptedException {
+	for (int i = 0; i < 3; i++) {
+	    System.gc();
+	    Thread.sleep(100);
+	}
+	return MEMORY.getHeapMemoryUsage().getUsed();
+    }
+}